@@ -12,9 +12,11 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.HandlerMapping;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.*;
 import java.net.FileNameMap;
 import java.net.URLConnection;
+import java.nio.channels.WritableByteChannel;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -269,33 +271,63 @@ public class ChmController {
     }
 
     @RequestMapping("/{path}/resources/**")
-    public ResponseEntity resource(@PathVariable("path") String path, HttpServletRequest request) throws IOException {
+    public ResponseEntity resource(@PathVariable("path") String path, HttpServletRequest request,
+                                   HttpServletResponse response) throws IOException {
         CHMFile chm = getChm(path);
 
         String uri = (String)request.getAttribute(HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE);
         String bestMatchPattern = (String)request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
         AntPathMatcher apm = new AntPathMatcher();
         String filename = apm.extractPathWithinPattern(bestMatchPattern, uri);
-        return resource(chm, filename);
+        return resource(chm, filename, response);
     }
 
     public static final String CONTENT_TYPE = "Content-Type";
 
     private ResponseEntity resource(CHMFile chm, String resourceName) throws IOException {
+        return resource(chm, resourceName, null);
+    }
+
+    /**
+     * @param response if not null and its output stream is a channel, resources in the Uncompressed section
+     *                 are sent to it directly by FileChannel.transferTo, and null is returned
+     */
+    private ResponseEntity resource(CHMFile chm, String resourceName, HttpServletResponse response) throws IOException {
         try {
             resourceName = CHMFile.normalizeFilename(resourceName);
 
+            if (response != null) {
+                CHMFile.ResourceEntry entry = chm.resolveEntry(resourceName);
+                WritableByteChannel channel = (entry != null && chm.isTransferable(entry)) ? getChannel(response) : null;
+                if (channel != null) {
+                    response.setHeader(CONTENT_TYPE, getContentType(resourceName));
+                    response.setContentLength(entry.getLength());
+                    chm.transferResource(entry, channel);
+                    return null; // the response is handled
+                }
+            }
+
             HttpHeaders responseHeaders = new HttpHeaders();
             responseHeaders.set(CONTENT_TYPE, getContentType(resourceName));
 
             InputStream is = chm.getResourceAsStream(resourceName);
-            ResponseEntity response = new ResponseEntity(new InputStreamResource(is), responseHeaders, HttpStatus.OK);
-            return response;
+            ResponseEntity entity = new ResponseEntity(new InputStreamResource(is), responseHeaders, HttpStatus.OK);
+            return entity;
         } catch (FileNotFoundException ex) {
             return new ResponseEntity("no resource: " + resourceName + " in chm document.", HttpStatus.NOT_FOUND);
         }
     }
 
+    /**
+     * The channel exposed by the servlet container if any,
+     * so FileChannel.transferTo can reach the socket with kernel zero-copy.
+     * @return null if the output stream is not a channel, the resource is streamed as before then
+     */
+    private WritableByteChannel getChannel(HttpServletResponse response) throws IOException {
+        OutputStream out = response.getOutputStream();
+        return (out instanceof WritableByteChannel) ? (WritableByteChannel) out : null;
+    }
+
     private String getContentType(String filename) {
         int i = filename.lastIndexOf('.');
         if (i >= 0) {
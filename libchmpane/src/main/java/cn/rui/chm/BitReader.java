@@ -0,0 +1,149 @@
+package cn.rui.chm;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+
+/**
+ * LZX bit stream over a byte array: 16-bit little endian words, read from the most significant bit.
+ * Bits are kept left aligned in a 64-bit buffer, refilled 32 bits at a time.
+ * One instance is reused for every block, see reset.
+ */
+final class BitReader {
+    private byte[] buf;
+    private int pos;
+    private int end;
+    // copy of the input when it has no accessible array
+    private byte[] scratch = new byte[0];
+
+    private long bitbuf;
+    private int bitsLeft;
+
+    /**
+     * Start reading the remaining bytes of in, its position is not moved
+     */
+    void reset(ByteBuffer in) {
+        if (in.hasArray()) {
+            reset(in.array(), in.arrayOffset() + in.position(), in.remaining());
+        } else {
+            if (scratch.length < in.remaining()) {
+                scratch = new byte[in.remaining()];
+            }
+            in.duplicate().get(scratch, 0, in.remaining());
+            reset(scratch, 0, in.remaining());
+        }
+    }
+
+    void reset(byte[] buf, int off, int len) {
+        this.buf = buf;
+        this.pos = off;
+        this.end = off + len;
+        this.bitbuf = 0;
+        this.bitsLeft = 0;
+    }
+
+    /**
+     * Make sure there are at least n (<= 32) bits in the buffer, unless the input ends.
+     * A trailing odd byte is never read as bits.
+     * @return bitsLeft
+     */
+    int ensure(int n) {
+        if (bitsLeft < n) {
+            if (end - pos >= 4) {
+                long words = (buf[pos + 1] & 0xff) << 24 | (buf[pos] & 0xff) << 16
+                        | (buf[pos + 3] & 0xff) << 8 | (buf[pos + 2] & 0xff);
+                bitbuf |= (words & 0xffffffffL) << (32 - bitsLeft);
+                bitsLeft += 32;
+                pos += 4;
+            } else {
+                while (bitsLeft < n && end - pos >= 2) {
+                    long word = (buf[pos + 1] & 0xff) << 8 | (buf[pos] & 0xff);
+                    bitbuf |= word << (48 - bitsLeft);
+                    bitsLeft += 16;
+                    pos += 2;
+                }
+            }
+        }
+        return bitsLeft;
+    }
+
+    /**
+     * Read n (<= 32) bits, see peek
+     */
+    int readLE(int n) throws EOFException {
+        int ret = peek(n);
+        bitbuf <<= n;
+        bitsLeft -= n;
+        return ret;
+    }
+
+    /**
+     * Peek n (<= 32) bits, may raise EOFException.
+     */
+    int peek(int n) throws EOFException {
+        if (ensure(n) < n) {
+            throw new EOFException();
+        }
+        return (int) ((bitbuf >>> 1) >>> (63 - n));
+    }
+
+    /**
+     * Peek no more than n (<= 32) bits, missing bits are 0, so there is no EOFException.
+     */
+    int peekUnder(int n) {
+        ensure(n);
+        return (int) ((bitbuf >>> 1) >>> (63 - n));
+    }
+
+    /**
+     * Drop the padding bits up to the 16-bit word boundary before raw reads,
+     * whole words already buffered are given back to the input.
+     * An aligned stream has 16 padding bits.
+     */
+    void align() {
+        ensure(16);
+        if (bitsLeft > 16) {
+            pos -= (bitsLeft - 1) / 16 * 2;
+        }
+        bitbuf = 0;
+        bitsLeft = 0;
+    }
+
+    /**
+     * Skip n bytes of the input, the bit buffer is dropped
+     */
+    void skipBytes(int n) {
+        pos += n;
+        bitbuf = 0;
+        bitsLeft = 0;
+    }
+
+    /**
+     * Bytes left for raw reads, after align
+     */
+    int available() {
+        return end - pos;
+    }
+
+    /**
+     * Raw 32-bit little endian int, after align
+     */
+    int read32LE() throws EOFException {
+        if (end - pos < 4) {
+            throw new EOFException();
+        }
+        int v = (buf[pos] & 0xff) | (buf[pos + 1] & 0xff) << 8 | (buf[pos + 2] & 0xff) << 16 | buf[pos + 3] << 24;
+        pos += 4;
+        return v;
+    }
+
+    /**
+     * Raw bytes, after align
+     */
+    void readFully(byte[] b, int off, int len) throws EOFException {
+        if (end - pos < len) {
+            throw new EOFException();
+        }
+        System.arraycopy(buf, pos, b, off, len);
+        pos += len;
+    }
+}
@@ -0,0 +1,392 @@
+package cn.rui.chm;
+
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of decompressed LZX reset intervals with a byte budget, which can be shared by many CHMFile,
+ * see OpenOptions.setBlockCache. The intervals of all the files compete for the same budget,
+ * and each file may hold at most maxBytesPerFile of it, its least recently used intervals are dropped beyond.
+ * Only cached intervals count: those still held by streams or being inflated are not in the budget.
+ *
+ * Off the heap, the intervals are kept in direct buffers, so a large cache does not burden the GC.
+ * The buffer of an evicted interval is recycled for another one as soon as no reader holds it,
+ * which is why readers retain and release intervals. There is no portable way to free a direct buffer,
+ * the recycled ones beyond a tenth of maxBytes are left to the GC.
+ * The JVM must allow that much direct memory, see -XX:MaxDirectMemorySize.
+ *
+ * The files also share the idle inflaters, and off the heap the arrays inflated into,
+ * at most as many of each size as there are processors.
+ */
+public class BlockCache {
+    // values of 1MB and more, a stripe should hold a few of them
+    private static final long MIN_STRIPE_BYTES = 16L << 20;
+
+    @Getter
+    private final long maxBytes;
+    @Getter
+    private final long maxBytesPerFile;
+    @Getter
+    private final boolean offHeap;
+    private final LRUCache<Key, Interval> cache;
+
+    // off heap, recycled buffers by capacity
+    private final ConcurrentMap<Integer, Queue<ByteBuffer>> freeBuffers = new ConcurrentHashMap<Integer, Queue<ByteBuffer>>();
+    private final AtomicLong freeBytes = new AtomicLong();
+
+    // idle inflaters by window size, and arrays by length, more of them would be idle most of the time
+    private final int maxIdle = Runtime.getRuntime().availableProcessors();
+    private final ConcurrentMap<Integer, Queue<Inflater>> idleInflaters = new ConcurrentHashMap<Integer, Queue<Inflater>>();
+    private final ConcurrentMap<Integer, Queue<byte[]>> idleArrays = new ConcurrentHashMap<Integer, Queue<byte[]>>();
+
+    /**
+     * @param maxBytes the total of the cached intervals
+     */
+    public BlockCache(long maxBytes) {
+        this(maxBytes, maxBytes);
+    }
+
+    /**
+     * @param maxBytes the total of the cached intervals
+     * @param maxBytesPerFile the share of one CHMFile
+     */
+    public BlockCache(long maxBytes, long maxBytesPerFile) {
+        this(maxBytes, maxBytesPerFile, false);
+    }
+
+    /**
+     * @param maxBytes the total of the cached intervals
+     * @param maxBytesPerFile the share of one CHMFile
+     * @param offHeap to keep the intervals in direct buffers
+     */
+    public BlockCache(long maxBytes, long maxBytesPerFile, boolean offHeap) {
+        if (maxBytes < 1 || maxBytesPerFile < 1)
+            throw new IllegalArgumentException("cache size must be positive");
+        this.maxBytes = maxBytes;
+        this.maxBytesPerFile = maxBytesPerFile;
+        this.offHeap = offHeap;
+        int stripes = (int) Math.max(1, Math.min(16, maxBytes / MIN_STRIPE_BYTES));
+        this.cache = new LRUCache<Key, Interval>(maxBytes, stripes, new LRUCache.Weigher<Key, Interval>() {
+            public int weigh(Key key, Interval value) {
+                return value.length();
+            }
+        }) {
+            @Override
+            protected void removed(Key key, Interval value) {
+                key.owner.removed(key.intervalNo, value);
+                value.release();
+            }
+        };
+    }
+
+    /**
+     * Bytes of all the cached intervals
+     */
+    public long size() {
+        return cache.weight();
+    }
+
+    /**
+     * Drop every cached interval, and the recycled buffers
+     */
+    public void clear() {
+        cache.clear();
+        freeBuffers.clear();
+        freeBytes.set(0);
+        idleInflaters.clear();
+        idleArrays.clear();
+    }
+
+    public String toString() {
+        return "BlockCache " + size() + "/" + maxBytes;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        Queue<ByteBuffer> free = freeBuffers.get(capacity);
+        ByteBuffer buf = (free == null) ? null : free.poll();
+        if (buf == null) {
+            return ByteBuffer.allocateDirect(capacity);
+        }
+        freeBytes.addAndGet(-capacity);
+        buf.clear();
+        return buf;
+    }
+
+    private void recycle(ByteBuffer buf) {
+        int capacity = buf.capacity();
+        if (freeBytes.addAndGet(capacity) > maxBytes / 10) {
+            freeBytes.addAndGet(-capacity);
+            return; // left to the GC
+        }
+        Queue<ByteBuffer> free = freeBuffers.get(capacity);
+        if (free == null) {
+            freeBuffers.putIfAbsent(capacity, new ConcurrentLinkedQueue<ByteBuffer>());
+            free = freeBuffers.get(capacity);
+        }
+        free.offer(buf);
+    }
+
+    /**
+     * An idle inflater, or a new one, give it back to the pool once the interval is inflated
+     */
+    Inflater takeInflater(int windowSize) {
+        Inflater inflater = poll(idleInflaters, windowSize);
+        return (inflater != null) ? inflater : new Inflater(windowSize);
+    }
+
+    void giveBack(int windowSize, Inflater inflater) {
+        offer(idleInflaters, windowSize, inflater);
+    }
+
+    /**
+     * An idle array to inflate into, or a new one, give it back to the pool once it is copied
+     */
+    byte[] takeArray(int length) {
+        byte[] array = poll(idleArrays, length);
+        return (array != null) ? array : new byte[length];
+    }
+
+    void giveBack(byte[] array) {
+        offer(idleArrays, array.length, array);
+    }
+
+    private static <T> T poll(ConcurrentMap<Integer, Queue<T>> idle, int size) {
+        Queue<T> queue = idle.get(size);
+        return (queue == null) ? null : queue.poll();
+    }
+
+    private <T> void offer(ConcurrentMap<Integer, Queue<T>> idle, int size, T value) {
+        Queue<T> queue = idle.get(size);
+        if (queue == null) {
+            idle.putIfAbsent(size, new ArrayBlockingQueue<T>(maxIdle));
+            queue = idle.get(size);
+        }
+        queue.offer(value); // left to the GC if full
+    }
+
+    /**
+     * A decompressed interval. Off the heap, it must be retained while it is read and released after,
+     * so its buffer is not recycled under the reader. An interval never released just costs a recycling.
+     */
+    class Interval {
+        private final ByteBuffer data;
+        // off heap, one for the cache and one per reader, 0 once recycled
+        private final AtomicInteger refs = new AtomicInteger(1);
+        // guarded by the owner, false while it is being put in the cache
+        private boolean cached;
+
+        Interval(ByteBuffer data) {
+            this.data = data;
+        }
+
+        int length() {
+            return data.capacity();
+        }
+
+        /**
+         * @return false if it is recycled already
+         */
+        boolean retain() {
+            if (!offHeap) {
+                return true;
+            }
+            for (;;) {
+                int n = refs.get();
+                if (n == 0) {
+                    return false;
+                }
+                if (refs.compareAndSet(n, n + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            if (offHeap && refs.decrementAndGet() == 0) {
+                recycle(data);
+            }
+        }
+
+        /**
+         * Copy len bytes from index into dst
+         */
+        void get(int index, byte[] dst, int off, int len) {
+            if (data.hasArray()) {
+                System.arraycopy(data.array(), data.arrayOffset() + index, dst, off, len);
+            } else {
+                ByteBuffer src = data.duplicate();
+                src.position(index);
+                src.get(dst, off, len);
+            }
+        }
+
+        /**
+         * @return read-only view of the data, valid until released
+         */
+        ByteBuffer view(int index, int len) {
+            ByteBuffer view = data.asReadOnlyBuffer();
+            view.limit(index + len).position(index);
+            return view;
+        }
+
+        /**
+         * @return read-only, valid for ever: a view on the heap, a copy off the heap
+         */
+        ByteBuffer slice(int index, int len) {
+            if (data.hasArray()) {
+                return view(index, len).slice();
+            }
+            byte[] copy = new byte[len];
+            get(index, copy, 0, len);
+            return ByteBuffer.wrap(copy).asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * Cached intervals of one file
+     */
+    Owner newOwner() {
+        return new Owner();
+    }
+
+    class Owner {
+        // cached intervals in access order, the least recently used first
+        private final LinkedHashMap<Integer, Interval> intervals = new LinkedHashMap<Integer, Interval>(16, 0.75f, true);
+        private long bytes;
+        // the file is closed, late intervals, from readahead for example, are not cached
+        private boolean closed;
+
+        /**
+         * @return retained, or null if it is not cached
+         */
+        Interval get(int intervalNo) {
+            Interval interval = cache.get(new Key(this, intervalNo));
+            if (interval == null || !interval.retain()) {
+                return null;
+            }
+            synchronized (this) {
+                intervals.get(intervalNo); // used again, trimmed last
+            }
+            return interval;
+        }
+
+        /**
+         * Cache the inflated interval, off the heap it is copied and may be reused by the caller.
+         * @return retained
+         */
+        Interval put(int intervalNo, byte[] inflated) {
+            Interval interval;
+            if (offHeap) {
+                ByteBuffer buf = allocate(inflated.length);
+                buf.put(inflated);
+                interval = new Interval(buf);
+            } else {
+                interval = new Interval(ByteBuffer.wrap(inflated));
+            }
+            Key key = new Key(this, intervalNo);
+            synchronized (this) {
+                if (closed) {
+                    return interval;
+                }
+                interval.retain(); // for the cache
+                Interval replaced = intervals.remove(intervalNo);
+                if (replaced != null) {
+                    bytes -= replaced.length();
+                }
+                intervals.put(intervalNo, interval);
+                bytes += interval.length();
+            }
+            if (!cache.put(key, interval)) {
+                removed(intervalNo, interval);
+                interval.release();
+                return interval;
+            }
+            // the cache is not called back holding the lock of the owner
+            List<Integer> victims = new ArrayList<Integer>();
+            synchronized (this) {
+                if (closed) {
+                    victims.add(intervalNo); // missed by clear()
+                }
+                interval.cached = true;
+                Iterator<Map.Entry<Integer, Interval>> it = intervals.entrySet().iterator();
+                while (bytes > maxBytesPerFile && it.hasNext()) {
+                    Map.Entry<Integer, Interval> eldest = it.next();
+                    if (eldest.getValue() == interval) {
+                        break;
+                    }
+                    if (!eldest.getValue().cached) {
+                        continue; // its own put trims after it
+                    }
+                    it.remove();
+                    bytes -= eldest.getValue().length();
+                    victims.add(eldest.getKey());
+                }
+            }
+            for (Integer victim : victims) {
+                cache.remove(new Key(this, victim));
+            }
+            return interval;
+        }
+
+        /**
+         * Called back by the cache, which may have replaced the interval in the meantime
+         */
+        synchronized void removed(int intervalNo, Interval interval) {
+            if (intervals.get(intervalNo) == interval) {
+                intervals.remove(intervalNo);
+                bytes -= interval.length();
+            }
+        }
+
+        /**
+         * Drop all the cached intervals of the file, when it is closed, none is cached after
+         */
+        void clear() {
+            List<Integer> intervalNos;
+            synchronized (this) {
+                closed = true;
+                intervalNos = new ArrayList<Integer>(intervals.keySet());
+            }
+            for (Integer intervalNo : intervalNos) {
+                cache.remove(new Key(this, intervalNo));
+            }
+        }
+    }
+
+    static final class Key {
+        final Owner owner;
+        final int intervalNo;
+
+        Key(Owner owner, int intervalNo) {
+            this.owner = owner;
+            this.intervalNo = intervalNo;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return owner == other.owner && intervalNo == other.intervalNo;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(owner) * 31 + intervalNo;
+        }
+    }
+}
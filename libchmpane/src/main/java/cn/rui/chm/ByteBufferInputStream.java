@@ -0,0 +1,54 @@
+package cn.rui.chm;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * InputStream reading directly from a ByteBuffer, nothing is copied.
+ * Like our ByteArrayInputStream, skip supports negative n.
+ */
+class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buf;
+
+    /**
+     * @param buf read from its position to its limit, the stream moves its position
+     */
+    ByteBufferInputStream(ByteBuffer buf) {
+        this.buf = buf;
+    }
+
+    @Override
+    public int read() {
+        return buf.hasRemaining() ? buf.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buf.hasRemaining()) {
+            return -1;
+        }
+        int n = Math.min(len, buf.remaining());
+        buf.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return buf.remaining();
+    }
+
+    @Override
+    public long skip(long n) {
+        long k = buf.remaining();
+        if (n <= -buf.position()) {
+            k = -buf.position();
+        } else if (n < k) {
+            k = n;
+        }
+        buf.position(buf.position() + (int) k);
+        return k;
+    }
+}
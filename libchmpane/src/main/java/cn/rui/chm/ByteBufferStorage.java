@@ -0,0 +1,132 @@
+package cn.rui.chm;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Keeps the whole chm file in memory, in a heap byte array or a direct buffer.
+ * Reads are slices of the buffer, without lock, copy or system call,
+ * it suits small and frequently used chm files,
+ * and chm files bundled in jar or zip files which need not be extracted to disk any more.
+ */
+public class ByteBufferStorage implements CHMStorage {
+    private final ByteBuffer data;
+    private final String name;
+
+    public ByteBufferStorage(byte[] data) {
+        this(ByteBuffer.wrap(data), "byte[" + data.length + "]");
+    }
+
+    /**
+     * @param data the content between its position and limit is used
+     */
+    public ByteBufferStorage(ByteBuffer data) {
+        this(data, data.toString());
+    }
+
+    private ByteBufferStorage(ByteBuffer data, String name) {
+        this.data = data.slice();
+        this.name = name;
+    }
+
+    /**
+     * Read the stream to its end, the stream is not closed.
+     * @param direct whether to keep the content in a direct buffer, outside the java heap
+     */
+    public static ByteBufferStorage load(InputStream in, boolean direct) throws IOException {
+        return load(in, -1, direct, in.toString());
+    }
+
+    /**
+     * Load a chm file from the class path, e.g. a help file bundled in the application jar
+     * @see ClassLoader#getResourceAsStream(String)
+     */
+    public static ByteBufferStorage loadResource(ClassLoader classLoader, String name, boolean direct) throws IOException {
+        InputStream in = classLoader.getResourceAsStream(name);
+        if (in == null) {
+            throw new FileNotFoundException("no resource " + name + " in class path");
+        }
+        try {
+            return load(in, -1, direct, "classpath:" + name);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Load a chm file stored in a zip or jar file
+     */
+    public static ByteBufferStorage loadZipEntry(ZipFile zip, String entryName, boolean direct) throws IOException {
+        ZipEntry entry = zip.getEntry(entryName);
+        if (entry == null) {
+            throw new FileNotFoundException("no entry " + entryName + " in " + zip.getName());
+        }
+        InputStream in = zip.getInputStream(entry);
+        try {
+            return load(in, entry.getSize(), direct, zip.getName() + "!/" + entryName);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static ByteBufferStorage load(InputStream in, long size, boolean direct, String name) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException(name + " is too large to be loaded in memory");
+        }
+        byte[] buf = new byte[size >= 0 ? (int) size : 0x10000];
+        int count = 0;
+        for (;;) {
+            if (count == buf.length) {
+                if (count == size) {
+                    break;
+                }
+                buf = Arrays.copyOf(buf, (int) Math.min(buf.length * 2L, Integer.MAX_VALUE));
+            }
+            int n = in.read(buf, count, buf.length - count);
+            if (n < 0) {
+                break;
+            }
+            count += n;
+        }
+        ByteBuffer data;
+        if (direct) {
+            data = ByteBuffer.allocateDirect(count);
+            data.put(buf, 0, count);
+            data.flip();
+        } else {
+            data = ByteBuffer.wrap(buf, 0, count);
+        }
+        return new ByteBufferStorage(data, name);
+    }
+
+    @Override
+    public long length() {
+        return data.capacity();
+    }
+
+    @Override
+    public ByteBuffer read(long offset, int len) throws IOException {
+        if (offset < 0 || len < 0 || offset + len > data.capacity()) {
+            throw new EOFException("read " + len + " bytes at " + offset + " exceeds length " + data.capacity());
+        }
+        ByteBuffer slice = data.duplicate();
+        slice.limit((int) offset + len);
+        slice.position((int) offset);
+        return slice.slice();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
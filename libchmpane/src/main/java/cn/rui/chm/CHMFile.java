@@ -41,10 +41,19 @@ import lombok.NonNull;
 import lombok.extern.java.Log;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
@@ -91,17 +100,19 @@ public final class CHMFile implements Closeable {
 
 	private final long chunkOffset;
 
-	private final RandomAccessFile fileAccess;
+	private final CHMStorage storage;
 
-	// should be cleared when entryCache is fully filled
+	// should be cleared when all the chunks are filled
 	private final AtomicInteger completedChunks;
 	private DirectoryChunk[] directoryChunks;
 	private DirectoryChunk rootIndexChunk;
+	// the whole directory region, only kept while preloading
+	private ByteBuffer directoryBuffer;
 
-	// will be filled stepwise
-	private final Map<String, ResourceEntry> entryCache;
+	// built when all the chunks are filled
+	private volatile DirectoryIndex directoryIndex;
 
-	// should have value when entryCache is fully filled
+	// should have value when all the chunks are filled
 	private final AtomicReference<Object> resourcesCache = new AtomicReference<Object>();
 	public List<String> getResources() throws IOException {
 		return Utils.lazyGet(this.resourcesCache, new Utils.SupplierWithException<List<String>, IOException>() {
@@ -114,20 +125,50 @@ public final class CHMFile implements Closeable {
 		});
 	}
 
+	/**
+	 * Same as getResources(), but the directory chunks are loaded concurrently on the executor,
+	 * one level of the index tree after another.
+	 * Java 6 has no ForkJoinPool, so any ExecutorService will do instead, e.g. a fixed thread pool,
+	 * or a ForkJoinPool on Java 7 and later.
+	 * @param executor not shut down
+	 */
+	public List<String> getResources(@NonNull ExecutorService executor) throws IOException {
+		// not inside lazyGet, the last completed chunk calls collectResources() on a worker thread
+		DirectoryChunk root = rootIndexChunk;
+		if (root != null && rootIndexChunkNo >= 0) {
+			fillChunksConcurrently(root, executor);
+		}
+		return getResources();
+	}
+
 	private List<String> collectResources() {
-		return Utils.lazyGet(this.resourcesCache, new Utils.Supplier<List<String>>() {
+		List<String> resources = Utils.lazyGet(this.resourcesCache, new Utils.Supplier<List<String>>() {
 			public List<String> get() {
-				List<String> list = new ArrayList<String>(entryCache.size());
-				for (String name : entryCache.keySet()) {
-					if (name.startsWith("/")) {
-						list.add(name);
+				// names are decoded once here, the listing chunks only keep the bytes
+				Map<String, ResourceEntry> entries = new TreeMap<String, ResourceEntry>(String.CASE_INSENSITIVE_ORDER);
+				for (DirectoryChunk chunk : directoryChunks) {
+					if (chunk != null && chunk.content instanceof ListingChunk) {
+						for (ResourceEntry entry : ((ListingChunk) chunk.content).children) {
+							entries.put(entry.getName(), entry);
+						}
 					}
 				}
+				DirectoryIndex index = new DirectoryIndex(entries.values());
+				directoryIndex = index;
 				directoryChunks = null;
 				rootIndexChunk = null;
-				return Collections.unmodifiableList(list);
+				return resourceNames(index);
 			}
 		});
+		saveIndexCache();
+		return resources;
+	}
+
+	private static List<String> resourceNames(DirectoryIndex index) {
+		// names starting with '/' are contiguous, no other char folds to '/' or '0'
+		int from = index.binarySearch("/");
+		int to = index.binarySearch("0");
+		return index.names(from < 0 ? -from - 1 : from, to < 0 ? -to - 1 : to);
 	}
 
 	public boolean isResourcesCompleted() {
@@ -150,37 +191,58 @@ public final class CHMFile implements Closeable {
 	}
 
 	public ResourceEntry searchChunk(DirectoryChunk chunk, String name) throws IOException {
+		if (chunk.content == null && chunk.chunkNo >= 0) {
+			ByteBuffer bytes = chunkBytes(chunk);
+			if (isListingChunk(bytes)) {
+				// no need to fill it for a single lookup
+				return searchListingChunk(bytes, name);
+			}
+		}
 		fillChunk(chunk);
 		if (chunk.content instanceof ListingChunk) {
 			List<ResourceEntry> children = ((ListingChunk) chunk.content).children;
-			int idx = Collections.binarySearch(children, new ResourceEntryKey(name),
-					new Comparator<ResourceEntryKey>() {
-						public int compare(ResourceEntryKey o1, ResourceEntryKey o2) {
-							return String.CASE_INSENSITIVE_ORDER.compare(o1.name, o2.name);
-						}
-					}
-			);
-			if (idx >= 0) {
-				return children.get(idx);
+			int low = 0;
+			int high = children.size() - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int cmp = children.get(mid).compareName(name);
+				if (cmp < 0) {
+					low = mid + 1;
+				} else if (cmp > 0) {
+					high = mid - 1;
+				} else {
+					return children.get(mid);
+				}
 			}
 		} else if (chunk.content instanceof IndexChunk) {
-			List<DirectoryChunk> children = ((IndexChunk) chunk.content).children;
-			int idx = Collections.binarySearch(children, new DirectoryChunkKey(name),
-					new Comparator<DirectoryChunkKey>() {
-						public int compare(DirectoryChunkKey o1, DirectoryChunkKey o2) {
-							return String.CASE_INSENSITIVE_ORDER.compare(o1.name, o2.name);
-						}
-					}
-			);
-			if (idx >= 0) {
-				return searchChunk(children.get(idx), name);
-			} else if (idx < -1) {
-				return searchChunk(children.get(-idx - 2), name);
+			DirectoryChunk sub = subChunk((IndexChunk) chunk.content, name);
+			if (sub != null) {
+				return searchChunk(sub, name);
 			}
 		}
 		return null;
 	}
 
+	/**
+	 * @return the sub chunk which may contain name, null if name is before all of them
+	 */
+	private static DirectoryChunk subChunk(IndexChunk chunk, String name) {
+		List<DirectoryChunk> children = chunk.children;
+		int idx = Collections.binarySearch(children, new DirectoryChunkKey(name),
+				new Comparator<DirectoryChunkKey>() {
+					public int compare(DirectoryChunkKey o1, DirectoryChunkKey o2) {
+						return String.CASE_INSENSITIVE_ORDER.compare(o1.name, o2.name);
+					}
+				}
+		);
+		if (idx >= 0) {
+			return children.get(idx);
+		} else if (idx < -1) {
+			return children.get(-idx - 2);
+		}
+		return null;
+	}
+
 	private void chunkCompleted(DirectoryChunk chunk) {
 		if (completedChunks.incrementAndGet() == totalChunks) {
 			collectResources();
@@ -209,9 +271,11 @@ public final class CHMFile implements Closeable {
 			if (chunk.content != null) {
 				return chunk;
 			}
-			LEInputStream in = new LEInputStream(rawInputStream(chunkOffset + chunk.chunkNo * (long)chunkSize, chunkSize));
-			String chunkMagic = in.readUTF8(4);
-			if (DirectoryChunkType.IndexChunk.magic.equals(chunkMagic)) {
+			ByteBuffer bytes = chunk.bytes;
+			ByteBuffer buf = bytes != null ? bytes.duplicate() : readChunk(chunk.chunkNo);
+			LEBuffer in = new LEBuffer(buf); // in moves the position of buf
+			int chunkMagic = in.read32();
+			if (chunkMagic == DirectoryChunkType.IndexChunk.code) {
 				ArrayList<DirectoryChunk> children = new ArrayList<DirectoryChunk>();
 				int freeSpace = in.read32(); // Length of free space and/or quickref area at end of directory chunk
 				// directory index entries, sorted by filename (case insensitive)
@@ -226,31 +290,123 @@ public final class CHMFile implements Closeable {
 					chunk.name = children.get(0).name;
 				}
 				chunk.content = new IndexChunk(children);
+				chunk.bytes = null;
 				chunkCompleted(chunk);
 				return chunk;
-			} else if (DirectoryChunkType.ListingChunk.magic.equals(chunkMagic)) {
+			} else if (chunkMagic == DirectoryChunkType.ListingChunk.code) {
 				ArrayList<ResourceEntry> entries = new ArrayList<ResourceEntry>();
 				int freeSpace = in.read32(); // Length of free space and/or quickref area at end of directory chunk
 				in.read32(); // = 0;
 				in.read32(); // previousChunk #
 				in.read32(); // nextChunk #
-				synchronized (entryCache) {
-					while (in.available() > freeSpace) {
-						ResourceEntry entry = new ResourceEntry(in);
-						entries.add(entry);
-						entryCache.put(entry.name, entry);
-					}
+				// names stay undecoded, lookups compare their bytes, see searchChunk
+				while (in.available() > freeSpace) {
+					entries.add(new ResourceEntry(buf));
 				}
 				if (chunk.name == null) {
-					chunk.name = entries.get(0).name;
+					chunk.name = entries.get(0).getName();
 				}
 				chunk.content = new ListingChunk(entries);
+				chunk.bytes = null;
 				chunkCompleted(chunk);
 				return chunk;
 			} else {
-				throw new DataFormatException("Index Chunk magic mismatch, '" + chunkMagic +  "' is not 'PMGI' nor 'PMGL'");
+				throw new DataFormatException("Index Chunk magic mismatch, '" + DirectoryChunkType.magicOf(chunkMagic) +  "' is not 'PMGI' nor 'PMGL'");
+			}
+		}
+	}
+
+	private ByteBuffer readChunk(int chunkNo) throws IOException {
+		ByteBuffer directory = directoryBuffer;
+		if (directory != null) {
+			ByteBuffer chunk = directory.duplicate();
+			chunk.limit((chunkNo + 1) * chunkSize);
+			chunk.position(chunkNo * chunkSize);
+			return chunk.slice();
+		}
+		return storage.read(chunkOffset + chunkNo * (long)chunkSize, chunkSize);
+	}
+
+	/**
+	 * Raw bytes of a chunk, kept until the chunk is filled, so lookups do not read it again
+	 */
+	private ByteBuffer chunkBytes(DirectoryChunk chunk) throws IOException {
+		ByteBuffer bytes = chunk.bytes;
+		if (bytes == null) {
+			bytes = readChunk(chunk.chunkNo);
+			chunk.bytes = bytes;
+		}
+		return bytes;
+	}
+
+	private static boolean isListingChunk(ByteBuffer chunk) {
+		return LEBuffer.le32(chunk, 0) == DirectoryChunkType.ListingChunk.code;
+	}
+
+	private static final int LISTING_CHUNK_HEADER_LENGTH = 0x14;
+
+	/**
+	 * Search a PMGL chunk without parsing all of it. The quickref area at the end of the chunk
+	 * holds the offset of every quickRef-th entry, in reverse order, preceded by the number of entries.
+	 * Binary search those entries, then scan from the last one not after name, until a greater name.
+	 * A count or an offset disagreeing with the entries falls back to scanning the whole chunk.
+	 */
+	private ResourceEntry searchListingChunk(ByteBuffer chunk, String name) throws IOException {
+		ByteBuffer in = chunk.duplicate();
+		int entriesEnd = chunkSize - LEBuffer.le32(in, 4); // free space and/or quickref area
+		int entryCount = LEBuffer.le16(in, chunkSize - 2);
+		int low = 0;
+		int high = (entryCount + quickRef - 1) / quickRef - 1;
+		if (high < 0 || chunkSize - 2 - 2 * high < entriesEnd) {
+			// no count, or more quickref entries than the quickref area holds, scan the whole chunk
+			high = 0;
+		}
+		// the last interval whose first entry is not after name
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			int entryPos = LISTING_CHUNK_HEADER_LENGTH + LEBuffer.le16(in, chunkSize - 2 - 2 * mid);
+			if (entryPos >= entriesEnd) {
+				// broken quickref, scan the whole chunk
+				low = 0;
+				break;
+			}
+			in.position(entryPos);
+			int cmp = compareName(in, name);
+			if (cmp == 0) {
+				in.position(entryPos);
+				return new ResourceEntry(in);
+			} else if (cmp < 0) {
+				low = mid;
+			} else {
+				high = mid - 1;
 			}
 		}
+		in.position(LISTING_CHUNK_HEADER_LENGTH + (low == 0 ? 0 : LEBuffer.le16(in, chunkSize - 2 - 2 * low)));
+		// not limited to quickRef entries, in case the count is smaller than the entries
+		while (in.position() < entriesEnd) {
+			int entryPos = in.position();
+			int cmp = compareName(in, name);
+			if (cmp == 0) {
+				in.position(entryPos);
+				return new ResourceEntry(in);
+			} else if (cmp > 0) {
+				break; // sorted
+			}
+			LEBuffer.readENC(in); // section
+			LEBuffer.readENC(in); // offset
+			LEBuffer.readENC(in); // length
+		}
+		return null;
+	}
+
+	/**
+	 * Compare the name of the entry at the position of in, without decoding it, and move past the name
+	 */
+	private static int compareName(ByteBuffer in, String name) throws IOException {
+		int nameLength = LEBuffer.readENC(in);
+		int nameOffset = in.position();
+		in.position(nameOffset + nameLength);
+		return DirectoryIndex.compareUTF8(in, nameOffset, nameOffset + nameLength, name);
 	}
 
 	private void fillChunkRecursively(DirectoryChunk chunk) throws IOException {
@@ -262,6 +418,29 @@ public final class CHMFile implements Closeable {
 		}
 	}
 
+	// tasks never wait for other tasks, so any executor will do, even a single thread one
+	private void fillChunksConcurrently(DirectoryChunk root, ExecutorService executor) throws IOException {
+		List<DirectoryChunk> level = Collections.singletonList(root);
+		while (!level.isEmpty()) {
+			List<Future<DirectoryChunk>> futures = new ArrayList<Future<DirectoryChunk>>(level.size());
+			for (final DirectoryChunk chunk : level) {
+				futures.add(executor.submit(new Callable<DirectoryChunk>() {
+					public DirectoryChunk call() throws IOException {
+						return fillChunk(chunk);
+					}
+				}));
+			}
+			List<DirectoryChunk> nextLevel = new ArrayList<DirectoryChunk>();
+			for (Future<DirectoryChunk> future : futures) {
+				DirectoryChunk chunk = Utils.await(future);
+				if (chunk.content instanceof IndexChunk) {
+					nextLevel.addAll(((IndexChunk) chunk.content).children);
+				}
+			}
+			level = nextLevel;
+		}
+	}
+
 	/**
 	 * Resovle entry by name, using cache and index
 	 * @param name not null
@@ -269,11 +448,261 @@ public final class CHMFile implements Closeable {
 	 * @throws IOException
 	 */
 	public ResourceEntry resolveEntry(@NonNull String name) throws IOException {
-		ResourceEntry entry = entryCache.get(name);
-		if (entry == null && !isResourcesCompleted()) {
-			entry = searchChunk(rootIndexChunk, name);
+		DirectoryIndex index = directoryIndex;
+		if (index == null) {
+			DirectoryChunk root = rootIndexChunk;
+			if (root != null) {
+				return searchChunk(root, name);
+			}
+			// root is cleared after directoryIndex is built
+			index = directoryIndex;
+		}
+		return index.getEntry(name);
+	}
+
+	/**
+	 * Names starting with prefix, ignoring case, in directory order.
+	 * Nothing is loaded in advance: before the directory is completed, the listing chunks are read one at a time.
+	 * The iterator throws IllegalStateException if a chunk cannot be read.
+	 * @param prefix not null, "" for all the entries
+	 */
+	public Iterator<String> listByPrefix(@NonNull final String prefix) throws IOException {
+		final NameCursor cursor = openNameCursor(prefix);
+		return new LazyIterator<String>() {
+			@Override
+			protected String computeNext() throws IOException {
+				String name = cursor.next();
+				return name != null && startsWithIgnoreCase(name, prefix) ? name : null;
+			}
+		};
+	}
+
+	/**
+	 * Names directly in the folder, ignoring case, in directory order.
+	 * Sub folders are listed once with a trailing '/', even if the directory has no entry for them.
+	 * Nothing is loaded in advance, see listByPrefix.
+	 * @param folder full path like "/html/", the trailing '/' can be omitted
+	 */
+	public Iterator<String> listChildren(@NonNull String folder) throws IOException {
+		final String prefix = folder.endsWith("/") ? folder : folder + "/";
+		final NameCursor cursor = openNameCursor(prefix);
+		return new LazyIterator<String>() {
+			@Override
+			protected String computeNext() throws IOException {
+				for (String name = cursor.next(); name != null && startsWithIgnoreCase(name, prefix); name = cursor.next()) {
+					int slash = name.indexOf('/', prefix.length());
+					if (name.length() == prefix.length()) {
+						continue; // the folder itself
+					} else if (slash < 0) {
+						return name;
+					}
+					// a sub folder, with an entry of its own or not,
+					// skip everything in it, no other char folds to '/' or '0'
+					cursor.seek(name.substring(0, slash) + '0');
+					return name.substring(0, slash + 1);
+				}
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * Resource names accepted by the filter, in directory order, the same names as getResources().
+	 * Each iteration reads the listing chunks one at a time from filter.getPrefix(), see listByPrefix,
+	 * so the first results come without loading the whole directory.
+	 * The iterator throws IllegalStateException if a chunk cannot be read.
+	 */
+	public Iterable<String> resources(@NonNull final ResourceFilter filter) {
+		return new Iterable<String>() {
+			public Iterator<String> iterator() {
+				return new LazyIterator<String>() {
+					private Iterator<String> names;
+
+					@Override
+					protected String computeNext() throws IOException {
+						if (names == null) {
+							names = listByPrefix(filter.getPrefix());
+						}
+						while (names.hasNext()) {
+							String name = names.next();
+							// "::DataSpace/..." and the like are not resources
+							if (name.startsWith("/") && filter.accept(name)) {
+								return name;
+							}
+						}
+						return null;
+					}
+				};
+			}
+		};
+	}
+
+	private static boolean startsWithIgnoreCase(String name, String prefix) {
+		return name.regionMatches(true, 0, prefix, 0, prefix.length());
+	}
+
+	private NameCursor openNameCursor(String from) throws IOException {
+		DirectoryIndex index = directoryIndex;
+		DirectoryChunk root = rootIndexChunk;
+		NameCursor cursor;
+		if (index == null && root != null) {
+			cursor = new ChunkNameCursor(root, directoryChunks);
+		} else {
+			// root is cleared after directoryIndex is built
+			cursor = new IndexNameCursor(index != null ? index : directoryIndex);
+		}
+		cursor.seek(from);
+		return cursor;
+	}
+
+	/**
+	 * Names in directory order
+	 */
+	private interface NameCursor {
+		/**
+		 * Move to the first name not before 'from'
+		 */
+		void seek(String from) throws IOException;
+
+		/**
+		 * @return null at the end
+		 */
+		String next() throws IOException;
+	}
+
+	private static class IndexNameCursor implements NameCursor {
+		private final DirectoryIndex index;
+		private int pos;
+
+		IndexNameCursor(DirectoryIndex index) {
+			this.index = index;
+		}
+
+		public void seek(String from) {
+			int i = index.binarySearch(from);
+			pos = i < 0 ? -i - 1 : i;
+		}
+
+		public String next() {
+			return pos < index.size() ? index.getName(pos++) : null;
+		}
+	}
+
+	/**
+	 * Reads the listing chunks in order, without filling them
+	 */
+	private class ChunkNameCursor implements NameCursor {
+		private final DirectoryChunk root;
+		private final DirectoryChunk[] chunks;
+		private int chunkNo;
+		private ByteBuffer in; // the current chunk, null before the first one
+		private int entriesEnd;
+
+		ChunkNameCursor(DirectoryChunk root, DirectoryChunk[] chunks) {
+			this.root = root;
+			this.chunks = chunks;
+		}
+
+		public void seek(String from) throws IOException {
+			// down the index tree to the listing chunk which may contain 'from'
+			DirectoryChunk chunk = root;
+			while (!(chunk.content instanceof ListingChunk)) {
+				if (chunk.content == null && chunk.chunkNo >= 0 && isListingChunk(chunkBytes(chunk))) {
+					break;
+				}
+				fillChunk(chunk);
+				if (chunk.content instanceof IndexChunk) {
+					IndexChunk index = (IndexChunk) chunk.content;
+					DirectoryChunk sub = subChunk(index, from);
+					chunk = sub != null ? sub : index.children.get(0);
+				}
+			}
+			open(chunk.chunkNo);
+			while (nextEntry()) {
+				int entryPos = in.position();
+				int cmp = compareName(in, from);
+				in.position(entryPos);
+				if (cmp >= 0) {
+					return;
+				}
+				skipEntry();
+			}
+		}
+
+		private void open(int chunkNo) throws IOException {
+			// chunks is cleared once the directory is completed
+			DirectoryChunk chunk = chunks != null ? chunks[chunkNo] : null;
+			ByteBuffer bytes = chunk != null ? chunk.bytes : null;
+			this.chunkNo = chunkNo;
+			this.in = (bytes != null ? bytes : readChunk(chunkNo)).duplicate();
+			if (isListingChunk(in)) {
+				entriesEnd = chunkSize - LEBuffer.le32(in, 4);
+				in.position(LISTING_CHUNK_HEADER_LENGTH);
+			} else {
+				entriesEnd = 0; // PMGI chunks may be among the PMGL ones
+			}
+		}
+
+		/**
+		 * Move to the next listing chunk if the current one is done
+		 * @return false at the end
+		 */
+		private boolean nextEntry() throws IOException {
+			while (in.position() >= entriesEnd) {
+				if (chunkNo >= lastPMGLChunkNo) {
+					return false;
+				}
+				open(chunkNo + 1);
+			}
+			return true;
+		}
+
+		private void skipEntry() throws IOException {
+			int nameLength = LEBuffer.readENC(in);
+			in.position(in.position() + nameLength);
+			LEBuffer.readENC(in); // section
+			LEBuffer.readENC(in); // offset
+			LEBuffer.readENC(in); // length
+		}
+
+		public String next() throws IOException {
+			return nextEntry() ? new ResourceEntry(in).getName() : null;
+		}
+	}
+
+	/**
+	 * Iterator over values computed one at a time, null marks the end
+	 */
+	private abstract static class LazyIterator<T> implements Iterator<T> {
+		private T next;
+		private boolean done;
+
+		protected abstract T computeNext() throws IOException;
+
+		public boolean hasNext() {
+			if (next == null && !done) {
+				try {
+					next = computeNext();
+				} catch (IOException ex) {
+					throw new IllegalStateException(ex);
+				}
+				done = next == null;
+			}
+			return next != null;
+		}
+
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			T value = next;
+			next = null;
+			return value;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
 		}
-		return entry;
 	}
 
 	enum DirectoryChunkType {
@@ -281,9 +710,17 @@ public final class CHMFile implements Closeable {
 		IndexChunk("PMGI");
 
 		public final String magic;
+		// the magic as a little endian DWORD
+		final int code;
 
 		DirectoryChunkType(String magic) {
 			this.magic = magic;
+			this.code = magic.charAt(0) | magic.charAt(1) << 8 | magic.charAt(2) << 16 | magic.charAt(3) << 24;
+		}
+
+		static String magicOf(int code) {
+			return new String(new char[] {(char) (code & 0xff), (char) (code >>> 8 & 0xff),
+					(char) (code >>> 16 & 0xff), (char) (code >>> 24)});
 		}
 	}
 
@@ -295,6 +732,8 @@ public final class CHMFile implements Closeable {
 	}
 	static class DirectoryChunk extends DirectoryChunkKey {
 		final int chunkNo;
+		// raw bytes, only kept between the first lookup and fill
+		volatile ByteBuffer bytes;
 
 		interface Content {
 			DirectoryChunkType getType();
@@ -331,21 +770,110 @@ public final class CHMFile implements Closeable {
 
 	private final Section[] sections;
 
-	private File file;
+	// null if there is no MSCompressed section
+	private final LZXCConfig lzxcConfig;
+
+	// absolute path of the file, or the storage, for the logs
+	private final String source;
+
+	// bare file name, for the messages of FileNotFoundException, which may reach users
+	private final String fileName;
+
+	// null if not opened from a file
+	private final File file;
+
+	// the sidecar index file, null if disabled, see OpenOptions.setIndexCacheDirectory
+	private final File indexCacheFile;
+	// what the sidecar holds, see saveIndexCache
+	private volatile int indexCacheContent;
+	private static final int CACHED_DIRECTORY = 1;
+	private static final int CACHED_SHARP_SYSTEM = 2;
+	private static final int CACHED_CONTENTS_SITEMAP = 4;
+	private static final int CACHED_INDEX_SITEMAP = 8;
+
+	// null for a cache of its own, see OpenOptions
+	private final BlockCache blockCache;
+
+	// null if readahead is disabled, see OpenOptions
+	private final ExecutorService readaheadExecutor;
+	private final int readaheadIntervals;
+
+	/**
+	 * How the raw bytes of the file are read
+	 */
+	public enum StorageMode {
+		/**
+		 * seek and read on a RandomAccessFile, all reads are serialized
+		 */
+		RANDOM_ACCESS_FILE,
+		/**
+		 * positional reads on a FileChannel, reads are lock free
+		 */
+		POSITIONAL_READ,
+		/**
+		 * map the file into memory, reads are lock free and copy free
+		 */
+		MEMORY_MAPPED;
+
+		CHMStorage open(File file) throws IOException {
+			switch (this) {
+				case POSITIONAL_READ:
+					return new FileChannelStorage(file);
+				case MEMORY_MAPPED:
+					return new MappedFileStorage(file);
+				default:
+					return new RandomAccessFileStorage(file);
+			}
+		}
+	}
 
 	public CHMFile(String filepath) throws IOException, DataFormatException {
 		this(new File(filepath));
 	}
+
+	public CHMFile(@NonNull File file) throws IOException, DataFormatException {
+		this(file, StorageMode.RANDOM_ACCESS_FILE);
+	}
+
 	/**
 	 * We need random access to the source file
 	 */
-	public CHMFile(@NonNull File file) throws IOException, DataFormatException {
+	public CHMFile(@NonNull File file, @NonNull StorageMode storageMode) throws IOException, DataFormatException {
+		this(file, storageMode, new OpenOptions());
+	}
+
+	public CHMFile(@NonNull File file, @NonNull StorageMode storageMode, @NonNull OpenOptions options)
+			throws IOException, DataFormatException {
+		this(storageMode.open(file), file, options);
+	}
+
+	/**
+	 * Open from any storage, e.g. a ByteBufferStorage holding the whole file in memory
+	 * @param storage closed by close()
+	 */
+	public CHMFile(@NonNull CHMStorage storage) throws IOException, DataFormatException {
+		this(storage, new OpenOptions());
+	}
+
+	public CHMFile(@NonNull CHMStorage storage, @NonNull OpenOptions options) throws IOException, DataFormatException {
+		this(storage, null, options);
+	}
+
+	/**
+	 * @param file null if not opened from a file
+	 */
+	private CHMFile(CHMStorage storage, File file, OpenOptions options) throws IOException, DataFormatException {
+		this.storage = storage;
 		this.file = file;
-		fileAccess = new RandomAccessFile(file, "r");
+		this.source = file != null ? file.getAbsolutePath() : storage.toString();
+		this.fileName = file != null ? file.getName() : storage.toString();
+		this.readaheadExecutor = options.getReadaheadIntervals() > 0 ? options.getReadaheadExecutor() : null;
+		this.readaheadIntervals = options.getReadaheadIntervals();
+		this.blockCache = options.getBlockCache();
 
 		/** Step 1. CHM header  */
 		// The header length is 0x60 (96)
-		LEInputStream inHeader = new LEInputStream(rawInputStream(0, CHM_HEADER_LENGTH));
+		LEBuffer inHeader = rawBuffer(0, CHM_HEADER_LENGTH);
 		if (!inHeader.readUTF8(4).equals("ITSF")) {
 			throw new DataFormatException("CHM file should start with 'ITSF'");
 		}
@@ -378,17 +906,17 @@ public final class CHMFile implements Closeable {
 		//log.fine("CHM content offset " + contentOffset);
 
 		/* Step 1.1 (Optional)  CHM header section 0 */
-		LEInputStream inHeader0 = new LEInputStream(rawInputStream(off0, (int) len0)); // len0 can't exceed 32-bit
+		LEBuffer inHeader0 = rawBuffer(off0, (int) len0); // len0 can't exceed 32-bit
 		inHeader0.read32(); // 0x01FE;
 		inHeader0.read32(); // 0;
-		if ((fileLength = inHeader0.read64()) != fileAccess.length()) {
+		if ((fileLength = inHeader0.read64()) != storage.length()) {
 			log.warning("CHM file may be corrupted, expect file length " + fileLength);
 		}
 		inHeader0.read32(); // 0;
 		inHeader0.read32(); // 0;
 		
 		/* Step 1.2 CHM header section 1: directory index header */
-		LEInputStream inDirectory = new LEInputStream(rawInputStream(off1, CHM_DIRECTORY_HEADER_LENGTH));
+		LEBuffer inDirectory = rawBuffer(off1, CHM_DIRECTORY_HEADER_LENGTH);
 
 		if (!inDirectory.readUTF8(4).equals("ITSP")) {
 			throw new DataFormatException("CHM directory header should start with 'ITSP'");
@@ -419,19 +947,43 @@ public final class CHMFile implements Closeable {
 			throw new DataFormatException("CHM directory list chunks size mismatch");
 		}
 
+		/* Step 1.3 (Optional) sidecar index file */
+		IndexCacheFile cached = null;
+		if (file != null && options.getIndexCacheDirectory() != null) {
+			indexCacheFile = IndexCacheFile.fileFor(options.getIndexCacheDirectory(), file);
+			try {
+				cached = IndexCacheFile.load(indexCacheFile, file, timestamp);
+			} catch (IOException ex) {
+				log.log(Level.WARNING, "Ignore index cache file " + indexCacheFile, ex);
+			}
+		} else {
+			indexCacheFile = null;
+		}
+
 		// init chunk cache
-		entryCache = new ConcurrentSkipListMap<String, ResourceEntry>(String.CASE_INSENSITIVE_ORDER);
 		completedChunks = new AtomicInteger(0);
-		directoryChunks = new DirectoryChunk[totalChunks];
-		rootIndexChunk = new DirectoryChunk(rootIndexChunkNo, null);
-		if (rootIndexChunkNo >= 0) {
-			directoryChunks[rootIndexChunkNo] = rootIndexChunk;
+		if (cached != null) {
+			directoryIndex = cached.index;
+			resourcesCache.set(resourceNames(cached.index));
 		} else {
-			fillFakeRootIndexChunk(rootIndexChunk);
+			directoryChunks = new DirectoryChunk[totalChunks];
+			rootIndexChunk = new DirectoryChunk(rootIndexChunkNo, null);
+			if (options.isPreloadDirectory()) {
+				directoryBuffer = storage.read(chunkOffset, chunkSize * totalChunks);
+			}
+			if (rootIndexChunkNo >= 0) {
+				directoryChunks[rootIndexChunkNo] = rootIndexChunk;
+			} else {
+				fillFakeRootIndexChunk(rootIndexChunk);
+			}
+			if (options.isPreloadDirectory()) {
+				getResources();
+				directoryBuffer = null;
+			}
 		}
 
 		/* Step 2. CHM name list: content sections */
-		LEInputStream isNameList = new LEInputStream(getUncompressedResourceAsStream(ResourceNames.NameList, null));
+		LEBuffer isNameList = getUncompressedResource(ResourceNames.NameList, null);
 		isNameList.read16(); // length in 16-bit-word, = in.length() / 2
 		sections = new Section[isNameList.read16()];
 		LZXCConfig lzxcConfig = null;
@@ -441,7 +993,8 @@ public final class CHMFile implements Closeable {
 				sections[i] = new UncompressedSection();
 			} else if ("MSCompressed".equals(name)) {
 				if (lzxcConfig == null) {
-					lzxcConfig = new LZXCConfig(); // use Uncompressed sections, should be sections[0]
+					// use Uncompressed sections, should be sections[0]
+					lzxcConfig = new LZXCConfig(cached != null ? cached.resetTable : null);
 				}
 				sections[i] = lzxcConfig.createLZXCSection();
 			} else {
@@ -449,19 +1002,85 @@ public final class CHMFile implements Closeable {
 			}
 			isNameList.read16(); // = null
 		}
+		this.lzxcConfig = lzxcConfig;
+
+		if (cached != null) {
+			if (cached.sharpSystem != null) {
+				sharpSystem.set(new SharpSystem(ByteBuffer.wrap(cached.sharpSystem)));
+			}
+			if (cached.contentsSiteMapCached) {
+				Utils.lazySet(contentsSiteMapCache, cached.contentsSiteMap);
+			}
+			if (cached.indexSiteMapCached) {
+				Utils.lazySet(indexSiteMapCache, cached.indexSiteMap);
+			}
+			indexCacheContent = parsedIndexCacheContent();
+		}
+		// the directory is complete already if it was preloaded
+		saveIndexCache();
+	}
+
+	/**
+	 * Write the sidecar index file once the directory is complete, and write it again whenever more of what it holds,
+	 * like a sitemap, has been parsed since. Nothing is parsed for it, so opening stays as fast without a sidecar.
+	 * Failures are only logged.
+	 */
+	private void saveIndexCache() {
+		DirectoryIndex index = directoryIndex;
+		// sections is null while opening, the constructor calls it at its end
+		if (indexCacheFile == null || sections == null || index == null
+				|| (parsedIndexCacheContent() & ~indexCacheContent) == 0) {
+			return;
+		}
+		synchronized (indexCacheFile) {
+			int content = parsedIndexCacheContent();
+			if ((content & ~indexCacheContent) == 0) {
+				return;
+			}
+			try {
+				IndexCacheFile cache = new IndexCacheFile();
+				cache.index = index;
+				if (lzxcConfig != null) {
+					cache.resetTable = lzxcConfig.getResetTable();
+				}
+				if ((content & CACHED_SHARP_SYSTEM) != 0) {
+					ByteBuffer buf = getResourceAsByteBuffer(ResourceNames.SharpSystem);
+					cache.sharpSystem = new byte[buf.remaining()];
+					buf.get(cache.sharpSystem);
+				}
+				cache.contentsSiteMapCached = (content & CACHED_CONTENTS_SITEMAP) != 0;
+				cache.contentsSiteMap = Utils.lazyPeek(contentsSiteMapCache);
+				cache.indexSiteMapCached = (content & CACHED_INDEX_SITEMAP) != 0;
+				cache.indexSiteMap = Utils.lazyPeek(indexSiteMapCache);
+				cache.save(indexCacheFile, file, timestamp);
+			} catch (IOException ex) {
+				log.log(Level.WARNING, "Cannot write index cache file " + indexCacheFile, ex);
+			}
+			// not tried again until something new is parsed
+			indexCacheContent |= content;
+		}
+	}
+
+	private int parsedIndexCacheContent() {
+		return (directoryIndex != null ? CACHED_DIRECTORY : 0)
+				| (Utils.isLazySet(sharpSystem) ? CACHED_SHARP_SYSTEM : 0)
+				| (Utils.isLazySet(contentsSiteMapCache) ? CACHED_CONTENTS_SITEMAP : 0)
+				| (Utils.isLazySet(indexSiteMapCache) ? CACHED_INDEX_SITEMAP : 0);
 	}
 
 	/**
 	 * Read len bytes from file beginning from offset.
-	 * Since it's really a ByteArrayInputStream, close() operation is optional
+	 * Since it's really a ByteBufferInputStream, close() operation is optional
 	 */
 	private InputStream rawInputStream(long offset, int len) throws IOException {
-		synchronized(fileAccess) {
-			fileAccess.seek(offset);
-			byte[] b = new byte[len]; // TODO performance?
-			fileAccess.readFully(b);
-			return new ByteArrayInputStream(b);
-		}
+		return new ByteBufferInputStream(storage.read(offset, len));
+	}
+
+	/**
+	 * Read len bytes from file beginning from offset, to parse them in place
+	 */
+	private LEBuffer rawBuffer(long offset, int len) throws IOException {
+		return new LEBuffer(storage.read(offset, len));
 	}
 
 	private InputStream getStreamFromEntry(@NonNull ResourceEntry entry) throws IOException {
@@ -469,6 +1088,19 @@ public final class CHMFile implements Closeable {
 		return section.resolveInputStream(entry.offset, entry.length);
 	}
 
+	private ByteBuffer getByteBufferFromEntry(@NonNull ResourceEntry entry) throws IOException {
+		Section section = sections[entry.section];
+		return section.resolveByteBuffer(entry.offset, entry.length);
+	}
+
+	private @NonNull ResourceEntry requireEntry(@NonNull String name) throws IOException {
+		ResourceEntry entry = resolveEntry(name);
+		if (entry == null) {
+			throw new FileNotFoundException(fileName + name);
+		}
+		return entry;
+	}
+
 	/**
 	 * Get an InputStream object for the named resource in the CHM.
 	 * @param name not null
@@ -476,20 +1108,151 @@ public final class CHMFile implements Closeable {
 	 * @throws IOException, FileNotFoundException if cannot find the entry
 	 */
 	public @NonNull InputStream getResourceAsStream(@NonNull String name) throws IOException {
-		ResourceEntry entry = resolveEntry(name);
-		if (entry == null) {
-			throw new FileNotFoundException(file.getName() + name);
+		return getStreamFromEntry(requireEntry(name));
+	}
+
+	/**
+	 * Get the content of the named resource, avoiding copies whenever possible:
+	 * it may be a slice of the mapped file for the Uncompressed section,
+	 * or a slice of a cached decompressed interval, but a copy when the cache is off the heap.
+	 * @param name not null
+	 * @return read-only, cannot be null
+	 * @throws IOException, FileNotFoundException if cannot find the entry
+	 */
+	public @NonNull ByteBuffer getResourceAsByteBuffer(@NonNull String name) throws IOException {
+		return getByteBufferFromEntry(requireEntry(name));
+	}
+
+	/**
+	 * Write the content of the named resource to the channel, without intermediate buffers.
+	 * @param name not null
+	 * @param out not closed
+	 * @return the number of bytes written
+	 * @throws IOException, FileNotFoundException if cannot find the entry
+	 */
+	public long readResource(@NonNull String name, @NonNull WritableByteChannel out) throws IOException {
+		ResourceEntry entry = requireEntry(name);
+		sections[entry.section].writeTo(entry.offset, entry.length, out);
+		return entry.length;
+	}
+
+	/**
+	 * Stream the named resource to the channel by FileChannel.transferTo, with kernel zero-copy (sendfile)
+	 * when the storage and the channel support it.
+	 * Only resources in the Uncompressed section qualify, they are just a byte range of the file.
+	 * @param name not null
+	 * @param out not closed
+	 * @return false if the resource is compressed, nothing is written then
+	 * @throws IOException, FileNotFoundException if cannot find the entry
+	 */
+	public boolean transferResource(@NonNull String name, @NonNull WritableByteChannel out) throws IOException {
+		return transferResource(requireEntry(name), out);
+	}
+
+	/**
+	 * Same as transferResource(name, out), for an entry already resolved by resolveEntry
+	 */
+	public boolean transferResource(@NonNull ResourceEntry entry, @NonNull WritableByteChannel out) throws IOException {
+		if (!isTransferable(entry)) {
+			return false;
+		}
+		sections[entry.section].writeTo(entry.offset, entry.length, out);
+		return true;
+	}
+
+	/**
+	 * @return true if transferResource sends the entry, that is if it is in the Uncompressed section
+	 */
+	public boolean isTransferable(@NonNull ResourceEntry entry) {
+		return sections[entry.section] instanceof UncompressedSection;
+	}
+
+	/**
+	 * Receives the resources read by readResources
+	 */
+	public interface ResourceHandler {
+		/**
+		 * Called concurrently on the executor threads
+		 * @param content read-only, see getResourceAsByteBuffer
+		 */
+		void handle(String name, ByteBuffer content) throws IOException;
+	}
+
+	/**
+	 * Read many resources concurrently on the executor, for batch jobs like extracting the whole file.
+	 * The resources are grouped by the LZX reset interval they start in, and the groups run in parallel,
+	 * so the intervals are inflated on all the executor threads instead of one after another.
+	 * The handler is called once per resource, in no particular order.
+	 * @param names like getResources()
+	 * @param executor not shut down
+	 * @return the resources failed to read or to handle, by name, empty if none
+	 */
+	public Map<String, IOException> readResources(@NonNull Iterable<String> names, @NonNull ExecutorService executor,
+			@NonNull final ResourceHandler handler) throws IOException {
+		final Map<String, IOException> failures = new ConcurrentSkipListMap<String, IOException>();
+		List<ResourceEntry> entries = new ArrayList<ResourceEntry>();
+		for (String name : names) {
+			ResourceEntry entry = resolveEntry(name);
+			if (entry == null) {
+				failures.put(name, new FileNotFoundException(fileName + name));
+			} else {
+				entries.add(entry);
+			}
+		}
+		Collections.sort(entries, new Comparator<ResourceEntry>() {
+			public int compare(ResourceEntry e1, ResourceEntry e2) {
+				if (e1.section != e2.section) {
+					return e1.section < e2.section ? -1 : 1;
+				}
+				return e1.offset < e2.offset ? -1 : (e1.offset == e2.offset ? 0 : 1);
+			}
+		});
+
+		long intervalLength = (lzxcConfig == null) ? Long.MAX_VALUE
+				: (long) lzxcConfig.resetInterval * lzxcConfig.blockSize;
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int from = 0; from < entries.size(); ) {
+			ResourceEntry first = entries.get(from);
+			int to = from + 1;
+			while (to < entries.size() && entries.get(to).section == first.section
+					&& entries.get(to).offset / intervalLength == first.offset / intervalLength) {
+				to++;
+			}
+			final List<ResourceEntry> group = entries.subList(from, to);
+			futures.add(executor.submit(new Callable<Void>() {
+				public Void call() {
+					for (ResourceEntry entry : group) {
+						String name = entry.getName();
+						try {
+							handler.handle(name, getByteBufferFromEntry(entry));
+						} catch (IOException ex) {
+							failures.put(name, ex);
+						}
+					}
+					return null;
+				}
+			}));
+			from = to;
+		}
+		for (Future<?> future : futures) {
+			Utils.await(future);
+		}
+		return failures;
+	}
+
+	private static void writeFully(ByteBuffer buf, WritableByteChannel out) throws IOException {
+		while (buf.hasRemaining()) {
+			out.write(buf);
 		}
-		return getStreamFromEntry(entry);
 	}
 
 	// never use sections , cause it has not been initialized.
-	private InputStream getUncompressedResourceAsStream(@NonNull String name, String simpleName) throws IOException {
+	private LEBuffer getUncompressedResource(@NonNull String name, String simpleName) throws IOException {
 		ResourceEntry entry = resolveEntry(name);
 		if (entry == null) {
 			throw new DataFormatException("Missing " + (simpleName != null ? simpleName : name) + " entry");
 		}
-		return rawInputStream(contentOffset + entry.offset, entry.length);
+		return rawBuffer(contentOffset + entry.offset, entry.length);
 	}
 
 	private final AtomicReference<Object> sharpSystem = new AtomicReference<Object>();
@@ -501,7 +1264,7 @@ public final class CHMFile implements Closeable {
 				if (entrySharpSystem == null) {
 					throw new DataFormatException("Missing " + ResourceNames.SharpSystem + " entry");
 				}
-				return new SharpSystem(getStreamFromEntry(entrySharpSystem));
+				return new SharpSystem(getByteBufferFromEntry(entrySharpSystem));
 			}
 		});
 	}
@@ -533,10 +1296,9 @@ public final class CHMFile implements Closeable {
 			public String get() throws IOException {
 				String name = getSharpSystem().getProperty(SharpSystem.HhpOption.ContentsFile);
 				if (name == null) {
-					for(String resource : getResources()) {
-						if (resource.toLowerCase().endsWith(".hhc")) {
-							return resource;
-						}
+					Iterator<String> resources = resources(ResourceFilter.extension("hhc")).iterator();
+					if (resources.hasNext()) {
+						return resources.next();
 					}
 				}
 				return name;
@@ -546,12 +1308,14 @@ public final class CHMFile implements Closeable {
 
 	private final AtomicReference<Object> contentsSiteMapCache = new AtomicReference<Object>();
 	public SiteMap getContentsSiteMap() throws IOException {
-		return Utils.lazyGet(contentsSiteMapCache, new Utils.SupplierWithException<SiteMap, IOException>() {
+		SiteMap siteMap = Utils.lazyGet(contentsSiteMapCache, new Utils.SupplierWithException<SiteMap, IOException>() {
 			@Override
 			public SiteMap get() throws IOException {
 				return createSiteMap(getContentsFileName());
 			}
 		});
+		saveIndexCache();
+		return siteMap;
 	}
 
 	// *.hhk
@@ -562,10 +1326,9 @@ public final class CHMFile implements Closeable {
 			public String get() throws IOException {
 				String name = getSharpSystem().getProperty(SharpSystem.HhpOption.IndexFile);
 				if (name == null) {
-					for(String resource : getResources()) {
-						if (resource.toLowerCase().endsWith(".hhk")) {
-							return resource;
-						}
+					Iterator<String> resources = resources(ResourceFilter.extension("hhk")).iterator();
+					if (resources.hasNext()) {
+						return resources.next();
 					}
 				}
 				return name;
@@ -575,12 +1338,14 @@ public final class CHMFile implements Closeable {
 
 	private final AtomicReference<Object> indexSiteMapCache = new AtomicReference<Object>();
 	public SiteMap getIndexSiteMap() throws IOException {
-		return Utils.lazyGet(indexSiteMapCache, new Utils.SupplierWithException<SiteMap, IOException>() {
+		SiteMap siteMap = Utils.lazyGet(indexSiteMapCache, new Utils.SupplierWithException<SiteMap, IOException>() {
 			@Override
 			public SiteMap get() throws IOException {
 				return createSiteMap(getIndexFileName());
 			}
 		});
+		saveIndexCache();
+		return siteMap;
 	}
 
 	public String getDefaultTopic() throws IOException {
@@ -591,9 +1356,17 @@ public final class CHMFile implements Closeable {
 	 * After close, the object can not be used any more.
 	 */
 	public synchronized void close() throws IOException {
-		RandomAccessFile fileAccess = this.fileAccess;
-		if (fileAccess != null) {
-			fileAccess.close();
+		CHMStorage storage = this.storage;
+		if (storage != null) {
+			storage.close();
+		}
+		// give the shared cache back to the other files, sections is null if the constructor failed
+		if (sections != null) {
+			for (Section section : sections) {
+				if (section instanceof LZXCConfig.LZXCSection) {
+					((LZXCConfig.LZXCSection) section).cachedIntervals.clear();
+				}
+			}
 		}
 	}
 
@@ -603,12 +1376,31 @@ public final class CHMFile implements Closeable {
 
 	interface Section {
 		InputStream resolveInputStream(long off, int len) throws IOException;
+
+		/**
+		 * @return read-only
+		 */
+		ByteBuffer resolveByteBuffer(long off, int len) throws IOException;
+
+		void writeTo(long off, int len, WritableByteChannel out) throws IOException;
 	}
 
 	class UncompressedSection implements Section {
 		public InputStream resolveInputStream(long off, int len) throws IOException {
 			return rawInputStream(contentOffset + off, len);
 		}
+
+		public ByteBuffer resolveByteBuffer(long off, int len) throws IOException {
+			return storage.read(contentOffset + off, len).asReadOnlyBuffer();
+		}
+
+		public void writeTo(long off, int len, WritableByteChannel out) throws IOException {
+			if (storage instanceof CHMStorage.Transferable) {
+				((CHMStorage.Transferable) storage).transferTo(contentOffset + off, len, out);
+			} else {
+				writeFully(storage.read(contentOffset + off, len), out);
+			}
+		}
 	}
 
 	class LZXCConfig {
@@ -620,9 +1412,12 @@ public final class CHMFile implements Closeable {
 		final int windowSize;
 		final long sectionOffset;
 		final int cacheSize;
-		public LZXCConfig() throws IOException, DataFormatException {
+		/**
+		 * @param resetTable from the sidecar index file, null to read it from the file
+		 */
+		public LZXCConfig(IndexCacheFile.ResetTable resetTable) throws IOException, DataFormatException {
 			// control data
-			LEInputStream in = new LEInputStream(getUncompressedResourceAsStream(ResourceNames.LzxcControlData, "LZXC control data"));
+			LEBuffer in = getUncompressedResource(ResourceNames.LzxcControlData, "LZXC control data");
 			in.read32(); // words following LZXC
 			if ( ! in.readUTF8(4).equals("LZXC")) {
 				throw new DataFormatException("Must be in LZX Compression");
@@ -636,17 +1431,24 @@ public final class CHMFile implements Closeable {
 			in.read32(); // = 0
 
 			// reset table
-			in = new LEInputStream(getUncompressedResourceAsStream(ResourceNames.LzxcResetTable, "LZXC reset table"));
-			int version = in.read32();
-			if ( version != 2) log.warning("LZXC version unknown " + version);
-			addressTable = new long[in.read32()];
-			in.read32(); // = 8; size of table entry
-			in.read32(); // = 0x28, header length
-			uncompressedLength = in.read64();
-			compressedLength = in.read64();
-			blockSize = (int) in.read64(); // 0x8000, do not support blockSize larger than 32-bit integer
-			for (int i = 0; i < addressTable.length; i ++ ) {
-				addressTable[i] = in.read64();
+			if (resetTable != null) {
+				addressTable = resetTable.addressTable;
+				uncompressedLength = resetTable.uncompressedLength;
+				compressedLength = resetTable.compressedLength;
+				blockSize = resetTable.blockSize;
+			} else {
+				in = getUncompressedResource(ResourceNames.LzxcResetTable, "LZXC reset table");
+				int version = in.read32();
+				if ( version != 2) log.warning("LZXC version unknown " + version);
+				addressTable = new long[in.read32()];
+				in.read32(); // = 8; size of table entry
+				in.read32(); // = 0x28, header length
+				uncompressedLength = in.read64();
+				compressedLength = in.read64();
+				blockSize = (int) in.read64(); // 0x8000, do not support blockSize larger than 32-bit integer
+				for (int i = 0; i < addressTable.length; i ++ ) {
+					addressTable[i] = in.read64();
+				}
 			}
 			// init cache
 //			cachedBlocks = new byte[resetInterval][blockSize];
@@ -665,115 +1467,151 @@ public final class CHMFile implements Closeable {
 			sectionOffset = contentOffset + entry.offset;
 		}
 
+		IndexCacheFile.ResetTable getResetTable() {
+			return new IndexCacheFile.ResetTable(uncompressedLength, compressedLength, blockSize, addressTable);
+		}
+
 		public Section createLZXCSection() {
 			return new LZXCSection();
 		}
 
 		class LZXCSection implements Section {
-			final LRUCache<Integer, byte[][]> cachedBlocks;
+			// decompressed reset intervals, each one a flat array of resetInterval blocks
+			final BlockCache.Owner cachedIntervals;
+			// intervals being inflated, other threads wanting the same one wait for it
+			final ConcurrentMap<Integer, FutureTask<BlockCache.Interval>> inflating = new ConcurrentHashMap<Integer, FutureTask<BlockCache.Interval>>();
+			// also pools the inflaters and the arrays inflated into
+			final BlockCache cache;
+			final int intervalLength;
 			LZXCSection() {
-				cachedBlocks = new LRUCache<Integer, byte[][]>((1 + cacheSize) << 2);
+				intervalLength = resetInterval * blockSize;
+				// without a shared cache, as many intervals as the file asks for
+				cache = (blockCache != null) ? blockCache
+						: new BlockCache((long) ((1 + cacheSize) << 2) * intervalLength);
+				cachedIntervals = cache.newOwner();
+			}
+
+			/**
+			 * Get the decompressed reset interval, from the cache or by inflating.
+			 * Intervals are independent, different ones are inflated concurrently without any lock,
+			 * a thread wanting an interval already being inflated waits for it.
+			 * @return retained, release it once read, see BlockCache.Interval
+			 */
+			BlockCache.Interval getInterval(final int intervalNo) throws IOException {
+				for (;;) {
+					BlockCache.Interval cached = cachedIntervals.get(intervalNo);
+					if (cached != null) {
+						return cached;
+					}
+					FutureTask<BlockCache.Interval> task = new FutureTask<BlockCache.Interval>(new Callable<BlockCache.Interval>() {
+						public BlockCache.Interval call() throws IOException {
+							// it may have been cached just before the task was registered
+							BlockCache.Interval cached = cachedIntervals.get(intervalNo);
+							return (cached != null) ? cached : inflateInterval(intervalNo);
+						}
+					});
+					FutureTask<BlockCache.Interval> running = inflating.putIfAbsent(intervalNo, task);
+					if (running == null) {
+						try {
+							task.run();
+						} finally {
+							inflating.remove(intervalNo, task);
+						}
+						return Utils.await(task); // retained for this thread
+					}
+					BlockCache.Interval interval = Utils.await(running);
+					if (interval.retain()) {
+						return interval;
+					}
+					// evicted and recycled already, inflate it again
+				}
+			}
+
+			/**
+			 * The blocks are inflated straight into the interval, see Inflater.inflateInterval.
+			 * @return cached and retained
+			 */
+			private BlockCache.Interval inflateInterval(int intervalNo) throws IOException {
+				Inflater inflater = cache.takeInflater(windowSize);
+				// off heap, the array is copied to the cache, then reused
+				byte[] interval = cache.isOffHeap() ? cache.takeArray(intervalLength) : new byte[intervalLength];
+				try {
+					int resetBlockNo = intervalNo * resetInterval;
+					for (int i = 0; i < resetInterval && resetBlockNo + i < addressTable.length; i++) {
+						int blockNo = resetBlockNo + i;
+						int len = (int) ((blockNo + 1 < addressTable.length) ?
+								(addressTable[blockNo + 1] - addressTable[blockNo]) :
+								(compressedLength - addressTable[blockNo]));
+						//log.fine("readBlock " + blockNo + ": " + (sectionOffset + addressTable[blockNo]) + "+ " + len);
+						inflater.inflateInterval(i == 0, // reset flag
+								storage.read(sectionOffset + addressTable[blockNo], len),
+								interval, i * blockSize, blockSize); // here is the heart
+					}
+					return cachedIntervals.put(intervalNo, interval);
+				} finally {
+					// the next interval resets it anyway
+					cache.giveBack(windowSize, inflater);
+					if (cache.isOffHeap()) {
+						cache.giveBack(interval);
+					}
+				}
 			}
 
 			@Override
 			public InputStream resolveInputStream(final long off, final int len) throws IOException {
 				// the input stream !
 				return new InputStream() {
-					int startBlockNo = (int) (off / blockSize);
-					int startOffset = (int) (off % blockSize);
-					int endBlockNo = (int) ((off + len) / blockSize);
-					int endOffset = (int) ((off + len) % blockSize);
-					// actually start at reset intervals
-					int blockNo = startBlockNo - startBlockNo % resetInterval;
-
-					Inflater inflater = new Inflater(windowSize);
+					final long start = off; // offset of the resource in the section
+					final int length = len;
+					int pos = 0; // position in the resource
+					final IntervalReader intervals = new IntervalReader(off, len);
 
-					byte[] buf;
-					int posInBlock = 0;
-					int bytesLeftInBlock = 0;
+					BlockCache.Interval buf; // the current interval, retained
+					int bufIntervalNo = -1;
 
 					@Override
-					public int available() throws IOException {
-						return bytesLeftInBlock; // not non-blocking available
+					public int available() {
+						long posInSection = start + pos;
+						if (buf == null || posInSection / intervalLength != bufIntervalNo) {
+							return 0; // not non-blocking available
+						}
+						return (int) Math.min(length - pos, intervalLength - posInSection % intervalLength);
 					}
 
-					/**
-					 * Read the blockNo block, called when bytesLeft == 0
-					 */
-					private void readBlock() throws IOException {
-						if (blockNo > endBlockNo)
-							throw new EOFException();
-
-						int cachedNo = blockNo / resetInterval;
-						synchronized (cachedBlocks) {
-							byte[][] cache = cachedBlocks.get(cachedNo);
-							if (cache == null) {
-								if ((cache = cachedBlocks.prune()) == null) // try reuse old caches
-									cache = new byte[resetInterval][blockSize];
-								int resetBlockNo = blockNo - blockNo % resetInterval;
-								for (int i = 0; i < cache.length && resetBlockNo + i < addressTable.length; i++) {
-									int blockNo = resetBlockNo + i;
-									int len = (int) ((blockNo + 1 < addressTable.length) ?
-											(addressTable[blockNo + 1] - addressTable[blockNo]) :
-											(compressedLength - addressTable[blockNo]));
-									//log.fine("readBlock " + blockNo + ": " + (sectionOffset + addressTable[blockNo]) + "+ " + len);
-									inflater.inflate(i == 0, // reset flag
-											rawInputStream(sectionOffset + addressTable[blockNo], len),
-											cache[i]); // here is the heart
-								}
-								cachedBlocks.put(cachedNo, cache);
-							}
-							if (buf == null) // allocate the buffer
-								buf = new byte[blockSize];
-							System.arraycopy(cache[blockNo % cache.length], 0, buf, 0, buf.length);
-							//buf = cache[blockNo % cache.length]; // 直接使用缓存, 被缓存丢弃没有问题, 问题出在被复用
+					@Override
+					public int read(byte[] b, int off, int len) throws IOException {
+						if (len == 0) {
+							return 0;
 						}
-
-						if (blockNo < startBlockNo) {
-							// invalid blocks before startBlockNo
-							posInBlock = 0;
-							bytesLeftInBlock = 0;
-						} else {
-							if (blockNo == startBlockNo) {
-								// the start block has special pos value
-								posInBlock = startOffset;
-							} else {
-								posInBlock = 0;
-							}
-							if (blockNo == endBlockNo) {
-								// the end block has special length
-								bytesLeftInBlock = endOffset;
-							} else {
-								bytesLeftInBlock = blockSize;
+						if (pos >= length) {
+							return -1; // no more data
+						}
+						if (available() == 0) {
+							int intervalNo = (int) ((start + pos) / intervalLength);
+							BlockCache.Interval next = intervals.get(intervalNo);
+							if (buf != null) {
+								buf.release();
 							}
-							bytesLeftInBlock -= posInBlock;
+							buf = next;
+							bufIntervalNo = intervalNo;
 						}
-
-						blockNo++;
+						int togo = Math.min(len, available());
+						buf.get((int) ((start + pos) % intervalLength), b, off, togo);
+						pos += togo;
+						if (pos == length) {
+							close(); // streams read to the end are often not closed
+						}
+						return togo;
 					}
 
 					@Override
-					public int read(byte[] b, int off, int len) throws IOException {
-
-						if (blockNo > endBlockNo) {
-							// last block
-							if (bytesLeftInBlock <= 0) {
-								// read out
-								return -1; // no more data
-							}
-						} else if (bytesLeftInBlock <= 0) {
-							// not last block, invalid or read out
-							do {
-								readBlock(); // re-charge to next valid block
-							} while (blockNo <= startBlockNo);
+					public void close() {
+						if (buf != null) {
+							buf.release();
+							buf = null;
+							bufIntervalNo = -1;
 						}
-
-						int togo = Math.min(bytesLeftInBlock, len);
-						System.arraycopy(buf, posInBlock, b, off, togo);
-						posInBlock += togo;
-						bytesLeftInBlock -= togo;
-
-						return togo;
+						intervals.close();
 					}
 
 					@Override
@@ -783,37 +1621,222 @@ public final class CHMFile implements Closeable {
 					}
 
 					@Override
-					public long skip(long n) throws IOException {
-						log.warning("LZX skip happens: " + posInBlock + "+ " + n);
-						posInBlock += n;    // TODO n chould be negative, so do boundary checks!
-						return n;
+					public long skip(long n) {
+						// n could be negative
+						long k = Math.max(-pos, Math.min(n, length - pos));
+						pos += k;
+						return k;
 					}
 				};
 			}
-		}
-	}
 
-	static class ResourceEntryKey {
-		final String name;
-		ResourceEntryKey(String name) {
-			this.name = name;
+			@Override
+			public ByteBuffer resolveByteBuffer(long off, int len) throws IOException {
+				int posInInterval = (int) (off % intervalLength);
+				if (posInInterval + len <= intervalLength) {
+					// within a single interval, just a slice on the heap
+					BlockCache.Interval interval = getInterval((int) (off / intervalLength));
+					try {
+						return interval.slice(posInInterval, len);
+					} finally {
+						interval.release();
+					}
+				}
+				byte[] buf = new byte[len];
+				for (int done = 0; done < len; ) {
+					long posInSection = off + done;
+					posInInterval = (int) (posInSection % intervalLength);
+					int n = Math.min(len - done, intervalLength - posInInterval);
+					BlockCache.Interval interval = getInterval((int) (posInSection / intervalLength));
+					try {
+						interval.get(posInInterval, buf, done, n);
+					} finally {
+						interval.release();
+					}
+					done += n;
+				}
+				return ByteBuffer.wrap(buf).asReadOnlyBuffer();
+			}
+
+			@Override
+			public void writeTo(long off, int len, WritableByteChannel out) throws IOException {
+				IntervalReader intervals = new IntervalReader(off, len);
+				try {
+					for (long pos = off; pos < off + len; ) {
+						int posInInterval = (int) (pos % intervalLength);
+						int n = (int) Math.min(off + len - pos, intervalLength - posInInterval);
+						BlockCache.Interval interval = intervals.get((int) (pos / intervalLength));
+						try {
+							// straight from the cache, off the heap too
+							writeFully(interval.view(posInInterval, n), out);
+						} finally {
+							interval.release();
+						}
+						pos += n;
+					}
+				} finally {
+					intervals.close();
+				}
+			}
+
+			/**
+			 * The intervals of one resource, for a single reader.
+			 * With a readahead executor, the next readaheadIntervals ones are inflated on it
+			 * while the current one is consumed.
+			 */
+			class IntervalReader {
+				final int lastIntervalNo;
+				// futures of the intervals from aheadIntervalNo on, in order
+				final Deque<FutureTask<BlockCache.Interval>> ahead = new ArrayDeque<FutureTask<BlockCache.Interval>>();
+				int aheadIntervalNo;
+
+				IntervalReader(long off, int len) {
+					lastIntervalNo = (int) ((off + Math.max(len, 1) - 1) / intervalLength);
+				}
+
+				/**
+				 * @return retained, like getInterval
+				 */
+				BlockCache.Interval get(int intervalNo) throws IOException {
+					if (readaheadExecutor == null) {
+						return getInterval(intervalNo);
+					}
+					BlockCache.Interval interval;
+					if (intervalNo < aheadIntervalNo || intervalNo >= aheadIntervalNo + ahead.size()) {
+						// the first read, or a skip out of the readahead
+						close();
+						interval = getInterval(intervalNo);
+						aheadIntervalNo = intervalNo + 1;
+					} else {
+						while (aheadIntervalNo < intervalNo) {
+							drop(ahead.poll()); // skipped
+							aheadIntervalNo++;
+						}
+						FutureTask<BlockCache.Interval> task = ahead.poll();
+						// not started yet if the executor is busy, maybe with the readers themselves
+						task.run();
+						interval = Utils.await(task);
+						aheadIntervalNo++;
+					}
+					while (ahead.size() < readaheadIntervals && aheadIntervalNo + ahead.size() <= lastIntervalNo) {
+						final int nextIntervalNo = aheadIntervalNo + ahead.size();
+						FutureTask<BlockCache.Interval> task = new FutureTask<BlockCache.Interval>(new Callable<BlockCache.Interval>() {
+							public BlockCache.Interval call() throws IOException {
+								return getInterval(nextIntervalNo);
+							}
+						});
+						ahead.add(task);
+						try {
+							readaheadExecutor.execute(task);
+						} catch (RejectedExecutionException ex) {
+							break; // run when needed then
+						}
+					}
+					return interval;
+				}
+
+				/**
+				 * Drop the intervals read ahead
+				 */
+				void close() {
+					for (FutureTask<BlockCache.Interval> task : ahead) {
+						drop(task);
+					}
+					ahead.clear();
+				}
+
+				private void drop(FutureTask<BlockCache.Interval> task) {
+					// the interval of a task cancelled while running just misses a recycling
+					if (!task.cancel(false) && task.isDone()) {
+						try {
+							task.get().release();
+						} catch (Exception ex) {
+							// failed, nothing to release
+						}
+					}
+				}
+			}
 		}
 	}
 
-	public static class ResourceEntry extends ResourceEntryKey {
+	/**
+	 * A flyweight over a directory listing entry: the name stays as UTF-8 bytes in the chunk
+	 * until it is asked for, searching compares the bytes directly.
+	 */
+	public static class ResourceEntry {
+		// the chunk holding the name, cleared once the name is decoded
+		private volatile ByteBuffer chunk;
+		private final int nameOffset;
+		private final int nameLength;
+		private volatile String name;
+
 		final int section;
 		final long offset;
 		final int length;
 
-		public ResourceEntry(LEInputStream in) throws IOException {
-			super(in.readUTF8(in.readENC()));
-			section = in.readENC();
-			offset = in.readENC();
-			length = in.readENC();
+		/**
+		 * Parse the entry at the position of in, and move past it
+		 */
+		ResourceEntry(ByteBuffer in) throws IOException {
+			nameLength = LEBuffer.readENC(in);
+			nameOffset = in.position();
+			in.position(nameOffset + nameLength);
+			chunk = in;
+			section = LEBuffer.readENC(in);
+			offset = LEBuffer.readENC(in);
+			length = LEBuffer.readENC(in);
+		}
+
+		ResourceEntry(String name, int section, long offset, int length) {
+			this.name = name;
+			this.nameOffset = 0;
+			this.nameLength = 0;
+			this.section = section;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		public String getName() {
+			String name = this.name;
+			if (name == null) {
+				ByteBuffer chunk = this.chunk;
+				if (chunk == null) {
+					// decoded by another thread meanwhile, chunk is only cleared after name is set
+					return this.name;
+				}
+				byte[] buf = new byte[nameLength];
+				ByteBuffer in = chunk.duplicate();
+				in.position(nameOffset);
+				in.get(buf);
+				name = new String(buf, DirectoryIndex.UTF_8);
+				this.name = name;
+				this.chunk = null;
+			}
+			return name;
+		}
+
+		/**
+		 * Same as String.CASE_INSENSITIVE_ORDER.compare(getName(), other)
+		 */
+		int compareName(String other) {
+			String name = this.name;
+			ByteBuffer chunk = this.chunk;
+			if (name != null || chunk == null) {
+				// chunk is only cleared after name is set
+				return String.CASE_INSENSITIVE_ORDER.compare(getName(), other);
+			}
+			return DirectoryIndex.compareUTF8(chunk, nameOffset, nameOffset + nameLength, other);
 		}
 
 		public String toString() {
-			return name + " @" + section + ": " + offset + " + " + length;
+			return getName() + " @" + section + ": " + offset + " + " + length;
+		}
+
+		/**
+		 * @return the length of the content in bytes
+		 */
+		public int getLength() {
+			return length;
 		}
 	}
 
@@ -840,10 +1863,11 @@ public final class CHMFile implements Closeable {
 
 			ResourceEntry entryFIftiMain = resolveEntry(ResourceNames.DollarFIftiMain);
 			if (entryFIftiMain != null) {
-				LEInputStream in = new LEInputStream(getStreamFromEntry(entryFIftiMain));
-				if (in.read(new byte[256], 0, 0x7a) < 0x7a) {
+				LEBuffer in = new LEBuffer(getByteBufferFromEntry(entryFIftiMain));
+				if (in.available() < 0x7a + 8) {
 					throw new IOException("Unexpected end of file " + ResourceNames.DollarFIftiMain);
 				}
+				in.skip(0x7a);
 				int codePageSharpFIftiMain = in.read32();
 				putCodePage(values, codePageSharpFIftiMain, "CodePage in " + ResourceNames.DollarFIftiMain);
 				int lcidSharpFIftiMain = in.read32();
@@ -856,7 +1880,7 @@ public final class CHMFile implements Closeable {
 	}
 
 	public String testReadAll() {
-		log.info("begin file: " + file.getAbsolutePath());
+		log.info("begin file: " + source);
 		byte[] b = new byte[1024];
 		try {
 			int resourceSuccess = 0;
@@ -882,12 +1906,41 @@ public final class CHMFile implements Closeable {
 				}
 			}
 			log.log(Level.INFO, "success file: {0} resourceSuccess:{1} resourceFailed:{2}",
-					new Object[]{file.getAbsoluteFile(), resourceSuccess, resourceFailed});
+					new Object[]{source, resourceSuccess, resourceFailed});
+			return MessageFormat.format("success file: {0} resourceSuccess:{1} resourceFailed:{2}",
+					source, resourceSuccess, resourceFailed);
+		} catch (Exception ex) {
+			log.info("failed file: " + source);
+			return "failed file: " + source;
+		}
+	}
+
+	/**
+	 * Same as testReadAll(), but the resources are read concurrently on the executor, see readResources
+	 * @param executor not shut down
+	 */
+	public String testReadAll(@NonNull ExecutorService executor) {
+		log.info("begin file: " + source);
+		try {
+			List<String> names = getResources(executor);
+			Map<String, IOException> failures = readResources(names, executor, new ResourceHandler() {
+				public void handle(String name, ByteBuffer content) {
+					// inflating is the test, the content always has the entry length
+				}
+			});
+			for (Map.Entry<String, IOException> failure : failures.entrySet()) {
+				log.log(Level.SEVERE, "fail resource: {0}", new Object[]{failure.getKey()});
+				log.log(Level.SEVERE, "", failure.getValue());
+			}
+			int resourceFailed = failures.size();
+			int resourceSuccess = names.size() - resourceFailed;
+			log.log(Level.INFO, "success file: {0} resourceSuccess:{1} resourceFailed:{2}",
+					new Object[]{source, resourceSuccess, resourceFailed});
 			return MessageFormat.format("success file: {0} resourceSuccess:{1} resourceFailed:{2}",
-					file.getAbsoluteFile(), resourceSuccess, resourceFailed);
+					source, resourceSuccess, resourceFailed);
 		} catch (Exception ex) {
-			log.info("failed file: " + file.getAbsolutePath());
-			return "failed file: " + file.getAbsolutePath();
+			log.info("failed file: " + source);
+			return "failed file: " + source;
 		}
 	}
 
@@ -0,0 +1,40 @@
+package cn.rui.chm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Random access to the raw bytes of a chm file, a CHMFile can be opened from any implementation.
+ * Implementations must be safe for concurrent use by multiple threads.
+ * @see CHMFile#CHMFile(CHMStorage)
+ * @see ByteBufferStorage
+ * @see FileChannelStorage
+ */
+public interface CHMStorage extends Closeable {
+    /**
+     * Total length in bytes
+     */
+    long length() throws IOException;
+
+    /**
+     * Read len bytes beginning from offset.
+     * The returned buffer is positioned at 0 with limit len, it is owned by the caller
+     * but may share its content with the storage, so never write to it.
+     * @throws java.io.EOFException if the range exceeds the storage
+     */
+    ByteBuffer read(long offset, int len) throws IOException;
+
+    /**
+     * Optional capability of storages backed by a FileChannel,
+     * bytes are sent by FileChannel.transferTo, with kernel zero-copy when the target supports it.
+     */
+    interface Transferable {
+        /**
+         * Write len bytes beginning from offset to the channel, the channel is not closed.
+         * @throws java.io.EOFException if the range exceeds the storage
+         */
+        void transferTo(long offset, long len, WritableByteChannel out) throws IOException;
+    }
+}
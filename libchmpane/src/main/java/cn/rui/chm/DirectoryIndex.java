@@ -0,0 +1,496 @@
+package cn.rui.chm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Frozen directory of a CHMFile, built once all the chunks are loaded.
+ * Entries are sorted in String.CASE_INSENSITIVE_ORDER as in the directory chunks.
+ * Names are split into folders and leaves, like "/html/api/" + "index.htm".
+ * Every folder is stored once, as its parent folder and its last segment, so long shared prefixes cost nothing.
+ * All UTF-8 bytes are in two shared byte arrays, the other fields in parallel arrays.
+ * Searching compares the UTF-8 bytes with the name directly, nothing is allocated.
+ * Exact lookups go through an open addressing table on the case-folded hashes of the names instead.
+ * The entry found is created on its first lookup only, then kept.
+ */
+final class DirectoryIndex {
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // parent of top level folders, and folder of names without '/'
+    private static final int NO_FOLDER = -1;
+
+    private final int size;
+
+    // segment of folder f is segments[segmentOffsets[f], segmentOffsets[f + 1]), it ends with '/'
+    private final int[] folderParents;
+    private final byte[] segments;
+    private final int[] segmentOffsets;
+    private final ByteBuffer segmentsBuffer;
+
+    // name i is the path of entryFolders[i] + leaves[leafOffsets[i], leafOffsets[i + 1])
+    private final int[] entryFolders;
+    private final byte[] leaves;
+    private final int[] leafOffsets;
+    private final ByteBuffer leavesBuffer;
+
+    private final int[] sections;
+    private final long[] offsets;
+    private final int[] lengths;
+
+    // foldedHash of each name, and a linear probing table of entry + 1, 0 for empty slots
+    private final int[] hashes;
+    private final int[] table;
+
+    // entries handed out by getEntry, each one is created once, so looking it up again allocates nothing
+    private final CHMFile.ResourceEntry[] entries;
+
+    /**
+     * @param entries sorted in String.CASE_INSENSITIVE_ORDER, without duplicates
+     */
+    DirectoryIndex(Collection<CHMFile.ResourceEntry> entries) {
+        size = entries.size();
+        entryFolders = new int[size];
+        leafOffsets = new int[size + 1];
+        sections = new int[size];
+        offsets = new long[size];
+        lengths = new int[size];
+        hashes = new int[size];
+        FolderBuilder folders = new FolderBuilder();
+        ByteArrayOutputStream leafBytes = new ByteArrayOutputStream(size * 16);
+        int i = 0;
+        for (CHMFile.ResourceEntry entry : entries) {
+            String name = entry.getName();
+            // a trailing '/' belongs to the leaf, "/html/api/" is "/html/" + "api/"
+            int leafStart = name.lastIndexOf('/', name.length() - 2) + 1;
+            entryFolders[i] = folders.getId(name.substring(0, leafStart));
+            byte[] leaf = name.substring(leafStart).getBytes(UTF_8);
+            leafBytes.write(leaf, 0, leaf.length);
+            leafOffsets[i + 1] = leafBytes.size();
+            sections[i] = entry.section;
+            offsets[i] = entry.offset;
+            lengths[i] = entry.length;
+            hashes[i] = (int) foldedHash(name);
+            i++;
+        }
+        leaves = leafBytes.toByteArray();
+        leavesBuffer = ByteBuffer.wrap(leaves);
+        folderParents = folders.toParents();
+        segments = folders.segmentBytes.toByteArray();
+        segmentOffsets = folders.toSegmentOffsets();
+        segmentsBuffer = ByteBuffer.wrap(segments);
+        table = buildTable(hashes);
+        this.entries = new CHMFile.ResourceEntry[size];
+    }
+
+    private static class FolderBuilder {
+        final Map<String, Integer> ids = new HashMap<String, Integer>();
+        final List<Integer> parents = new ArrayList<Integer>();
+        final List<Integer> segmentEnds = new ArrayList<Integer>();
+        final ByteArrayOutputStream segmentBytes = new ByteArrayOutputStream();
+
+        /**
+         * @param path empty or ends with '/'
+         */
+        int getId(String path) {
+            if (path.length() == 0) {
+                return NO_FOLDER;
+            }
+            Integer id = ids.get(path);
+            if (id == null) {
+                int segmentStart = path.lastIndexOf('/', path.length() - 2) + 1;
+                int parent = getId(path.substring(0, segmentStart));
+                byte[] segment = path.substring(segmentStart).getBytes(UTF_8);
+                segmentBytes.write(segment, 0, segment.length);
+                id = parents.size();
+                parents.add(parent);
+                segmentEnds.add(segmentBytes.size());
+                ids.put(path, id);
+            }
+            return id;
+        }
+
+        int[] toParents() {
+            int[] values = new int[parents.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = parents.get(i);
+            }
+            return values;
+        }
+
+        int[] toSegmentOffsets() {
+            int[] values = new int[segmentEnds.size() + 1];
+            for (int i = 0; i < segmentEnds.size(); i++) {
+                values[i + 1] = segmentEnds.get(i);
+            }
+            return values;
+        }
+    }
+
+    private DirectoryIndex(int[] folderParents, byte[] segments, int[] segmentOffsets,
+                           int[] entryFolders, byte[] leaves, int[] leafOffsets,
+                           int[] sections, long[] offsets, int[] lengths, int[] hashes) {
+        this.size = sections.length;
+        this.folderParents = folderParents;
+        this.segments = segments;
+        this.segmentOffsets = segmentOffsets;
+        this.segmentsBuffer = ByteBuffer.wrap(segments);
+        this.entryFolders = entryFolders;
+        this.leaves = leaves;
+        this.leafOffsets = leafOffsets;
+        this.leavesBuffer = ByteBuffer.wrap(leaves);
+        this.sections = sections;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.hashes = hashes;
+        this.table = buildTable(hashes);
+        this.entries = new CHMFile.ResourceEntry[size];
+    }
+
+    private static int[] buildTable(int[] hashes) {
+        // at most half full
+        int capacity = 2;
+        while (capacity < hashes.length * 2) {
+            capacity <<= 1;
+        }
+        int[] table = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < hashes.length; i++) {
+            int slot = hashes[i] & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+        return table;
+    }
+
+    /**
+     * 64-bit FNV-1a of the case-folded code points, names equal in String.CASE_INSENSITIVE_ORDER have the same hash
+     */
+    static long foldedHash(String name) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < name.length(); ) {
+            int cp = name.codePointAt(i);
+            i += Character.charCount(cp);
+            // the same folding as String.CASE_INSENSITIVE_ORDER
+            hash = (hash ^ Character.toLowerCase(Character.toUpperCase(cp))) * 0x100000001b3L;
+        }
+        // FNV alone spreads the low bits poorly for short names
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeInt(folderParents.length);
+        writeInts(out, folderParents);
+        out.writeInt(segments.length);
+        out.write(segments);
+        writeInts(out, segmentOffsets);
+        out.writeInt(size);
+        writeInts(out, entryFolders);
+        out.writeInt(leaves.length);
+        out.write(leaves);
+        writeInts(out, leafOffsets);
+        writeInts(out, sections);
+        for (long offset : offsets) {
+            out.writeLong(offset);
+        }
+        writeInts(out, lengths);
+        writeInts(out, hashes);
+    }
+
+    private static void writeInts(DataOutput out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    /**
+     * Read what write() wrote, the position of in is moved past it.
+     * The structure is checked, so a corrupt file fails here, not in later lookups.
+     * @throws RuntimeException if corrupt
+     */
+    static DirectoryIndex read(ByteBuffer in) {
+        int folderCount = in.getInt();
+        int[] folderParents = getInts(in, folderCount);
+        byte[] segments = new byte[IndexCacheFile.checkCount(in, in.getInt(), 1)];
+        in.get(segments);
+        int[] segmentOffsets = getInts(in, folderCount + 1);
+        int size = in.getInt();
+        int[] entryFolders = getInts(in, size);
+        byte[] leaves = new byte[IndexCacheFile.checkCount(in, in.getInt(), 1)];
+        in.get(leaves);
+        int[] leafOffsets = getInts(in, size + 1);
+        int[] sections = getInts(in, size);
+        long[] offsets = new long[IndexCacheFile.checkCount(in, size, 8)];
+        in.asLongBuffer().get(offsets);
+        in.position(in.position() + size * 8);
+        int[] lengths = getInts(in, size);
+        int[] hashes = getInts(in, size);
+        for (int f = 0; f < folderCount; f++) {
+            // parents come first, getName cannot loop
+            checkRange(folderParents[f], NO_FOLDER, f);
+        }
+        for (int i = 0; i < size; i++) {
+            checkRange(entryFolders[i], NO_FOLDER, folderCount);
+        }
+        checkOffsets(segmentOffsets, segments.length);
+        checkOffsets(leafOffsets, leaves.length);
+        return new DirectoryIndex(folderParents, segments, segmentOffsets,
+                entryFolders, leaves, leafOffsets, sections, offsets, lengths, hashes);
+    }
+
+    /**
+     * @throws IllegalArgumentException unless from <= value < to
+     */
+    private static void checkRange(int value, int from, int to) {
+        if (value < from || value >= to) {
+            throw new IllegalArgumentException(value + " not in [" + from + ", " + to + ")");
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException unless offsets go from 0 to length, never backwards
+     */
+    private static void checkOffsets(int[] offsets, int length) {
+        checkRange(offsets[0], 0, 1);
+        for (int i = 1; i < offsets.length; i++) {
+            checkRange(offsets[i], offsets[i - 1], length + 1);
+        }
+        checkRange(offsets[offsets.length - 1], length, length + 1);
+    }
+
+    private static int[] getInts(ByteBuffer in, int n) {
+        int[] values = new int[IndexCacheFile.checkCount(in, n, 4)];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + n * 4);
+        return values;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Number of distinct folders, each one stored once
+     */
+    int folderCount() {
+        return folderParents.length;
+    }
+
+    /**
+     * Rebuild the full name from the folders and the leaf
+     */
+    String getName(int i) {
+        int leafLength = leafOffsets[i + 1] - leafOffsets[i];
+        int length = leafLength;
+        for (int f = entryFolders[i]; f != NO_FOLDER; f = folderParents[f]) {
+            length += segmentOffsets[f + 1] - segmentOffsets[f];
+        }
+        byte[] buf = new byte[length];
+        int pos = length - leafLength;
+        System.arraycopy(leaves, leafOffsets[i], buf, pos, leafLength);
+        for (int f = entryFolders[i]; f != NO_FOLDER; f = folderParents[f]) {
+            int segmentLength = segmentOffsets[f + 1] - segmentOffsets[f];
+            pos -= segmentLength;
+            System.arraycopy(segments, segmentOffsets[f], buf, pos, segmentLength);
+        }
+        return new String(buf, UTF_8);
+    }
+
+    CHMFile.ResourceEntry getEntry(int i) {
+        CHMFile.ResourceEntry entry = entries[i];
+        if (entry == null) {
+            // threads racing here create equal entries, the fields of ResourceEntry are safely published
+            entry = new CHMFile.ResourceEntry(getName(i), sections[i], offsets[i], lengths[i]);
+            entries[i] = entry;
+        }
+        return entry;
+    }
+
+    /**
+     * @return null if there is no entry called 'name'
+     */
+    CHMFile.ResourceEntry getEntry(String name) {
+        int h = (int) foldedHash(name);
+        int mask = table.length - 1;
+        for (int slot = h & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int i = table[slot] - 1;
+            if (hashes[i] == h && compare(i, name) == 0) {
+                return getEntry(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Same contract as Arrays.binarySearch
+     * @return index of the entry, or (-(insertion point) - 1)
+     */
+    int binarySearch(String name) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(mid, name);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * String.CASE_INSENSITIVE_ORDER.compare(getName(i), name), segment by segment
+     */
+    int compare(int i, String name) {
+        int k = matchFolder(entryFolders[i], name);
+        if (k >= 0) {
+            k = match(leavesBuffer, leafOffsets[i], leafOffsets[i + 1], name, k);
+        }
+        if (k == UNDECIDED) {
+            return String.CASE_INSENSITIVE_ORDER.compare(getName(i), name);
+        }
+        return result(k, name);
+    }
+
+    /**
+     * Match the path of the folder against the beginning of name
+     * @return same as match
+     */
+    private int matchFolder(int folder, String name) {
+        if (folder == NO_FOLDER) {
+            return 0;
+        }
+        int k = matchFolder(folderParents[folder], name);
+        if (k < 0) {
+            return k;
+        }
+        return match(segmentsBuffer, segmentOffsets[folder], segmentOffsets[folder + 1], name, k);
+    }
+
+    /**
+     * String.CASE_INSENSITIVE_ORDER.compare(new String(bytes in [from, to), "UTF-8"), name),
+     * decoding on the fly without allocation.
+     */
+    static int compareUTF8(ByteBuffer utf8, int from, int to, String name) {
+        int k = match(utf8, from, to, name, 0);
+        if (k == UNDECIDED) {
+            byte[] buf = new byte[to - from];
+            for (int i = 0; i < buf.length; i++) {
+                buf[i] = utf8.get(from + i);
+            }
+            return String.CASE_INSENSITIVE_ORDER.compare(new String(buf, UTF_8), name);
+        }
+        return result(k, name);
+    }
+
+    private static int result(int k, String name) {
+        if (k == LESS) {
+            return -1;
+        } else if (k == GREATER) {
+            return 1;
+        }
+        return k < name.length() ? -1 : 0;
+    }
+
+    // results of match besides a position
+    private static final int LESS = -1;
+    private static final int GREATER = -2;
+    private static final int UNDECIDED = -3;
+
+    /**
+     * Match the UTF-8 bytes in [from, to) against name from position k, folding case like String.CASE_INSENSITIVE_ORDER.
+     * Malformed bytes are UNDECIDED, they must be decoded into a String to get the same replacement chars.
+     * So are surrogates, since newer JDKs compare them as code points.
+     * @return the position in name after the bytes if they all match,
+     * or LESS / GREATER if the bytes sort before / after name, or UNDECIDED
+     */
+    private static int match(ByteBuffer utf8, int from, int to, String name, int k) {
+        int p = from;
+        int n = name.length();
+        while (p < to) {
+            if (k >= n) {
+                return GREATER;
+            }
+            int b = utf8.get(p++) & 0xff;
+            int cp;
+            if (b < 0x80) {
+                cp = b;
+            } else if (b >= 0xC2 && b <= 0xDF && p < to && isContinuation(utf8.get(p))) {
+                cp = ((b & 0x1F) << 6) | (utf8.get(p++) & 0x3F);
+            } else if (b >= 0xE0 && b <= 0xEF && p + 1 < to
+                    && isContinuation(utf8.get(p)) && isContinuation(utf8.get(p + 1))) {
+                cp = ((b & 0x0F) << 12) | ((utf8.get(p++) & 0x3F) << 6) | (utf8.get(p++) & 0x3F);
+                if (cp < 0x800 || (cp >= 0xD800 && cp <= 0xDFFF)) {
+                    return UNDECIDED;
+                }
+            } else {
+                // 4 bytes for a supplementary char, or malformed
+                return UNDECIDED;
+            }
+            char c1 = (char) cp;
+            char c2 = name.charAt(k++);
+            if (c2 >= 0xD800 && c2 <= 0xDFFF) {
+                return UNDECIDED;
+            }
+            if (c1 != c2) {
+                // same folding as String.CASE_INSENSITIVE_ORDER
+                c1 = Character.toUpperCase(c1);
+                c2 = Character.toUpperCase(c2);
+                if (c1 != c2) {
+                    c1 = Character.toLowerCase(c1);
+                    c2 = Character.toLowerCase(c2);
+                    if (c1 != c2) {
+                        return c1 < c2 ? LESS : GREATER;
+                    }
+                }
+            }
+        }
+        return k;
+    }
+
+    private static boolean isContinuation(byte b) {
+        return (b & 0xC0) == 0x80;
+    }
+
+    /**
+     * Names of the entries in [from, to), rebuilt when accessed
+     */
+    List<String> names(final int from, final int to) {
+        return new NameList(from, to);
+    }
+
+    private class NameList extends AbstractList<String> implements RandomAccess {
+        private final int from;
+        private final int to;
+
+        NameList(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= to - from) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (to - from));
+            }
+            return getName(from + index);
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package cn.rui.chm;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Positional reads (pread) on a FileChannel, there is no shared file pointer,
+ * so reads from many threads run in parallel without lock.
+ * NOTE: like any FileChannel, it is closed if a thread is interrupted while reading.
+ */
+public class FileChannelStorage implements CHMStorage, CHMStorage.Transferable {
+    private final FileChannel channel;
+    private final String name;
+
+    FileChannelStorage(File file) throws IOException {
+        this(new RandomAccessFile(file, "r").getChannel(), file.getPath());
+    }
+
+    /**
+     * @param channel closed by close()
+     */
+    public FileChannelStorage(FileChannel channel) {
+        this(channel, channel.toString());
+    }
+
+    private FileChannelStorage(FileChannel channel, String name) {
+        this.channel = channel;
+        this.name = name;
+    }
+
+    @Override
+    public long length() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public ByteBuffer read(long offset, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        long position = offset;
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position);
+            if (n < 0) {
+                throw new EOFException("read " + len + " bytes at " + offset + " exceeds file length");
+            }
+            position += n;
+        }
+        buf.flip();
+        return buf;
+    }
+
+    @Override
+    public void transferTo(long offset, long len, WritableByteChannel out) throws IOException {
+        transferFully(channel, offset, len, out);
+    }
+
+    /**
+     * FileChannel.transferTo may transfer less than requested, loop until done
+     */
+    static void transferFully(FileChannel channel, long offset, long len, WritableByteChannel out) throws IOException {
+        for (long position = offset; position < offset + len; ) {
+            long n = channel.transferTo(position, offset + len - position, out);
+            if (n <= 0) {
+                throw new EOFException("transfer " + len + " bytes at " + offset + " exceeds file length");
+            }
+            position += n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,250 @@
+package cn.rui.chm;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Sidecar index file of a CHMFile, see OpenOptions.setIndexCacheDirectory.
+ * It holds what is otherwise parsed at open or on first use: the directory, the LZXC reset table,
+ * the raw #SYSTEM and the sitemaps.
+ * It is only valid for the same path, length, modification time and CHM header timestamp.
+ * Big endian, loaded from a read-only mapping with bulk gets.
+ * A CRC32 of the whole file ends it, a corrupt file is ignored and written again like a stale one.
+ */
+final class IndexCacheFile {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MAGIC = 0x43484D58; // "CHMX"
+    private static final int VERSION = 3;
+
+    // states of a cached SiteMap
+    private static final byte NOT_CACHED = 0;
+    private static final byte NULL = 1;
+    private static final byte PRESENT = 2;
+
+    DirectoryIndex index;
+    // null if there is no LZXC section
+    ResetTable resetTable;
+    // null if not cached
+    byte[] sharpSystem;
+    boolean contentsSiteMapCached;
+    SiteMap contentsSiteMap;
+    boolean indexSiteMapCached;
+    SiteMap indexSiteMap;
+
+    /**
+     * The parsed LZXC reset table
+     */
+    static final class ResetTable {
+        final long uncompressedLength;
+        final long compressedLength;
+        final int blockSize;
+        final long[] addressTable;
+
+        ResetTable(long uncompressedLength, long compressedLength, int blockSize, long[] addressTable) {
+            this.uncompressedLength = uncompressedLength;
+            this.compressedLength = compressedLength;
+            this.blockSize = blockSize;
+            this.addressTable = addressTable;
+        }
+    }
+
+    /**
+     * The sidecar of chmFile in directory, named after the file, with the hash of its path against collisions
+     */
+    static File fileFor(File directory, File chmFile) {
+        String path = chmFile.getAbsolutePath();
+        return new File(directory, chmFile.getName() + "-" + Integer.toHexString(path.hashCode()) + ".idx");
+    }
+
+    /**
+     * @return null if the sidecar does not exist or is stale
+     * @throws IOException if it exists but cannot be read
+     */
+    static IndexCacheFile load(File cacheFile, File chmFile, int timestamp) throws IOException {
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        ByteBuffer in;
+        RandomAccessFile raf = new RandomAccessFile(cacheFile, "r");
+        try {
+            // the mapping stays valid after the file is closed
+            in = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION
+                    || !chmFile.getAbsolutePath().equals(readString(in))
+                    || in.getLong() != chmFile.length()
+                    || in.getLong() != chmFile.lastModified()
+                    || in.getInt() != timestamp) {
+                return null;
+            }
+            int end = in.limit() - 4;
+            if (end < in.position() || crc32(in, end) != in.getInt(end)) {
+                throw new DataFormatException("Index cache file checksum mismatch " + cacheFile);
+            }
+            in.limit(end);
+            IndexCacheFile cache = new IndexCacheFile();
+            cache.index = DirectoryIndex.read(in);
+            if (in.get() != 0) {
+                long uncompressedLength = in.getLong();
+                long compressedLength = in.getLong();
+                int blockSize = in.getInt();
+                long[] addressTable = new long[checkCount(in, in.getInt(), 8)];
+                in.asLongBuffer().get(addressTable);
+                in.position(in.position() + addressTable.length * 8);
+                checkResetTable(uncompressedLength, compressedLength, blockSize, addressTable);
+                cache.resetTable = new ResetTable(uncompressedLength, compressedLength, blockSize, addressTable);
+            }
+            int sharpSystemLength = in.getInt();
+            if (sharpSystemLength >= 0) {
+                cache.sharpSystem = new byte[checkCount(in, sharpSystemLength, 1)];
+                in.get(cache.sharpSystem);
+            }
+            byte state = in.get();
+            cache.contentsSiteMapCached = state != NOT_CACHED;
+            cache.contentsSiteMap = state == PRESENT ? SiteMap.read(in) : null;
+            state = in.get();
+            cache.indexSiteMapCached = state != NOT_CACHED;
+            cache.indexSiteMap = state == PRESENT ? SiteMap.read(in) : null;
+            return cache;
+        } catch (RuntimeException ex) {
+            // BufferUnderflowException if truncated, or any check failed
+            throw new DataFormatException("Index cache file corrupt " + cacheFile + ": " + ex);
+        }
+    }
+
+    private static int crc32(ByteBuffer in, int end) {
+        CRC32 crc = new CRC32();
+        ByteBuffer src = in.duplicate();
+        src.position(0);
+        byte[] buf = new byte[64 * 1024];
+        while (src.position() < end) {
+            int len = Math.min(buf.length, end - src.position());
+            src.get(buf, 0, len);
+            crc.update(buf, 0, len);
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * A count read from the file, checked against the bytes left, so a corrupt file cannot allocate
+     * a negative or huge array
+     * @param itemSize the least bytes of an item
+     */
+    static int checkCount(ByteBuffer in, int count, int itemSize) {
+        if (count < 0 || count > in.remaining() / itemSize) {
+            throw new BufferUnderflowException();
+        }
+        return count;
+    }
+
+    private static void checkResetTable(long uncompressedLength, long compressedLength, int blockSize, long[] addressTable) {
+        if (uncompressedLength < 0 || compressedLength < 0 || blockSize <= 0) {
+            throw new IllegalArgumentException("bad reset table");
+        }
+        long previous = 0;
+        for (long address : addressTable) {
+            if (address < previous || address > compressedLength) {
+                throw new IllegalArgumentException("bad reset table address " + address);
+            }
+            previous = address;
+        }
+    }
+
+    /**
+     * Write to a temporary file first, then rename it, so concurrent loads never see a partial file
+     */
+    void save(File cacheFile, File chmFile, int timestamp) throws IOException {
+        File directory = cacheFile.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create index cache directory " + directory);
+        }
+        File tempFile = File.createTempFile(cacheFile.getName(), ".tmp", directory);
+        try {
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile)), crc));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeString(out, chmFile.getAbsolutePath());
+                out.writeLong(chmFile.length());
+                out.writeLong(chmFile.lastModified());
+                out.writeInt(timestamp);
+                index.write(out);
+                if (resetTable == null) {
+                    out.writeByte(0);
+                } else {
+                    out.writeByte(1);
+                    out.writeLong(resetTable.uncompressedLength);
+                    out.writeLong(resetTable.compressedLength);
+                    out.writeInt(resetTable.blockSize);
+                    out.writeInt(resetTable.addressTable.length);
+                    for (long address : resetTable.addressTable) {
+                        out.writeLong(address);
+                    }
+                }
+                if (sharpSystem == null) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(sharpSystem.length);
+                    out.write(sharpSystem);
+                }
+                writeSiteMap(out, contentsSiteMapCached, contentsSiteMap);
+                writeSiteMap(out, indexSiteMapCached, indexSiteMap);
+                out.writeInt((int) crc.getValue());
+            } finally {
+                out.close();
+            }
+            // renameTo does not replace an existing file on every platform
+            cacheFile.delete();
+            if (!tempFile.renameTo(cacheFile)) {
+                throw new IOException("Cannot rename " + tempFile + " to " + cacheFile);
+            }
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    private static void writeSiteMap(DataOutput out, boolean cached, SiteMap sitemap) throws IOException {
+        if (!cached) {
+            out.writeByte(NOT_CACHED);
+        } else if (sitemap == null) {
+            out.writeByte(NULL);
+        } else {
+            out.writeByte(PRESENT);
+            sitemap.write(out);
+        }
+    }
+
+    /**
+     * Nullable UTF-8 string, unlike DataOutput.writeUTF not limited to 64K
+     */
+    static void writeString(DataOutput out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes(UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    static String readString(ByteBuffer in) {
+        int len = in.getInt();
+        if (len < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[checkCount(in, len, 1)];
+        in.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -38,7 +38,7 @@
 package cn.rui.chm;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.logging.Logger;
 
 /**
@@ -107,6 +107,11 @@ class Inflater {
 	LZXTree mainTree 	= new LZXTree(12, LZX_NUM_CHARS + 50 * 8);
 	LZXTree lengthTree 	= new LZXTree(12, LZX_NUM_SECONDARY_LENGTHS + 1);
 	LZXTree alignedTree 	= new LZXTree(7, 	LZX_ALIGNED_NUM_ELEMENTS);
+
+	// reused for every block
+	private final BitReader bin = new BitReader();
+	// output of the current reset interval, used as the window, see inflateInterval
+	private byte[] directWindow;
 	
 	/**
 	 * Don't forget reset at reset intervals
@@ -130,7 +135,7 @@ class Inflater {
 		main_elements = LZX_NUM_CHARS + (positionSlotNo << 3);
 	}
 
-	public int inflate(boolean reset, InputStream in, byte[]buf) throws DataFormatException, IOException {
+	public int inflate(boolean reset, ByteBuffer in, byte[]buf) throws DataFormatException, IOException {
 		return inflate(reset, in, buf, 0, buf.length);
 	}
 	
@@ -142,7 +147,21 @@ class Inflater {
      * In the later case, getAdler() can be used to get the Adler-32
      * value of the dictionary required.
      */
-	public int inflate(boolean reset, InputStream in, byte[]buf, int off, int len) throws DataFormatException, IOException {
+	public int inflate(boolean reset, ByteBuffer in, byte[]buf, int off, int len) throws DataFormatException, IOException {
+		return inflate(reset, in, buf, off, len, false);
+	}
+
+	/**
+	 * Inflate a block of a reset interval into out, off is the position of the block in the interval.
+	 * The blocks of an interval must be inflated in order into the same out.
+	 * If out is not larger than the window, it is used as the window itself:
+	 * matches never wrap around then, and nothing is copied out of the window.
+	 */
+	public int inflateInterval(boolean reset, ByteBuffer in, byte[] out, int off, int len) throws DataFormatException, IOException {
+		return inflate(reset, in, out, off, len, true);
+	}
+
+	private int inflate(boolean reset, ByteBuffer in, byte[]buf, int off, int len, boolean interval) throws DataFormatException, IOException {
 
 		if (reset) {	// reset at reset intervals
 			r0 = r1 = r2 = 1;
@@ -158,22 +177,30 @@ class Inflater {
 			lengthTree.clear();
 		}
 		
-		BitsInputStream bin = new BitsInputStream(in);
+		bin.reset(in);
 		
 		if (! header_read) {
 			if ( bin.readLE(1) > 0) {
 				intel_filesize = (bin.readLE(16) << 16) | bin.readLE(16);	// = 0 if not encoded
 				log.info("Intel filesize = " + intel_filesize);
+			} else {
+				intel_filesize = 0;	// not left over from a previous interval or file, inflaters are pooled
 			}
 			header_read = true;
 		}
+
+		if (reset) {
+			// Intel E8 decoding changes the output, while the window must keep the decoded bytes
+			directWindow = (interval && buf.length <= window.length && intel_filesize == 0) ? buf : null;
+		}
+		byte[] window = (interval && buf == directWindow) ? buf : this.window;
 		
 		int togo = len;
 		while (togo > 0) {
 			if (block_remaining == 0) {
 				if (block_type == LZX_BLOCKTYPE_UNCOMPRESSED) {
 					if ( (block_length & 1) > 0)	// odd
-						bin.skip(1); // realign to word
+						bin.skipBytes(1); // realign to word
 				}
 				block_type = bin.readLE(3);
 				block_remaining = block_length = bin.readLE(16) << 8 | bin.readLE(8) ;
@@ -201,10 +228,8 @@ class Inflater {
 					log.warning("LZXC meet LZX_BLOCKTYPE_UNCOMPRESSED");
 					intel_started = true; // because we can't assume otherwise
 
-					// get up to 16 pad bits into the buffer
-					if (bin.ensure(16) > 16) {
-						bin.skip(-2);    // and align the bitstream! TODO what happens to the bitbuf/bitsLeft?
-					}
+					// skip the 1 to 16 pad bits, and align the bitstream
+					bin.align();
 					r0 = bin.read32LE();
 					r1 = bin.read32LE();
 					r2 = bin.read32LE();
@@ -223,7 +248,7 @@ class Inflater {
 			 * remaining - in this boundary case they aren't really part of
 			 * the compressed data)
 			 * 	if (inpos > (endinpos+2) || bitsleft < 16) return DECR_ILLEGALDATA;
-			 * @see BitsInputStream#peekUnder();
+			 * @see BitReader#peekUnder();
 			 */
 			
 			int this_run;
@@ -317,18 +342,22 @@ class Inflater {
 								runsrc = rundest - match_offset;
 							} else { // wrap around
 								runsrc = rundest + (window.length - match_offset);
+								if (match_offset > window.length) {
+									throw new DataFormatException("Match offset " + match_offset + " beyond the window");
+								}
 								int copy_length = match_offset - window_posn;
 								if (copy_length < match_length) {
 									match_length -= copy_length;
 									window_posn += copy_length;
-									while (copy_length-- > 0) window[rundest ++] = window[runsrc ++];
+									System.arraycopy(window, runsrc, window, rundest, copy_length);
+									rundest += copy_length;
 									runsrc = 0;
 								}
 							}
 							window_posn += match_length;
 
 							// copy match data - no worries about destination wraps
-							while (match_length-- > 0) window[rundest ++] = window[runsrc ++];
+							copyMatch(window, runsrc, rundest, match_length);
                     	 }
                      }
 				}
@@ -337,7 +366,9 @@ class Inflater {
 		
 		if (togo != 0) throw new DataFormatException("should never happens");
 		
-		System.arraycopy(window, (window_posn == 0 ? window.length : window_posn) - len, buf, off, len);
+		if (window != buf) {
+			System.arraycopy(window, (window_posn == 0 ? window.length : window_posn) - len, buf, off, len);
+		}
 		
 		// Intel E8 decoding
 		if ( (frames_read ++ < 32768) && (intel_filesize != 0) ) {
@@ -368,4 +399,24 @@ class Inflater {
 		}
 		return 0;
 	}
+
+	/**
+	 * Copy a match within the window. When the source is closer than the length,
+	 * the match repeats the bytes between source and destination: copy them, then twice as many, and so on.
+	 */
+	private static void copyMatch(byte[] window, int src, int dest, int len) {
+		int distance = dest - src;
+		if (distance >= len || distance <= 0) {
+			// no overlap, or the source is ahead as for a wrapped match
+			System.arraycopy(window, src, window, dest, len);
+			return;
+		}
+		while (len > 0) {
+			int n = Math.min(distance, len);
+			System.arraycopy(window, src, window, dest, n);
+			dest += n;
+			len -= n;
+			distance += n;
+		}
+	}
 }
@@ -0,0 +1,158 @@
+package cn.rui.chm;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * Little endian cursor over a ByteBuffer, for the headers, directory chunks and the system files.
+ * Nothing is allocated but the strings it returns.
+ */
+final class LEBuffer {
+    private static final Charset UTF_16LE = Charset.forName("UTF-16LE");
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private final ByteBuffer buf;
+
+    /**
+     * @param buf read from its position to its limit, the cursor moves its position and sets its byte order
+     */
+    LEBuffer(ByteBuffer buf) {
+        this.buf = buf.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    int available() {
+        return buf.remaining();
+    }
+
+    void skip(int n) throws EOFException {
+        require(n);
+        buf.position(buf.position() + n);
+    }
+
+    private void require(int n) throws EOFException {
+        if (buf.remaining() < n) {
+            throw new EOFException();
+        }
+    }
+
+    /**
+     * 16-bit little endian unsigned integer
+     */
+    int read16() throws EOFException {
+        require(2);
+        return buf.getShort() & 0xffff;
+    }
+
+    /**
+     * 32-bit little endian integer
+     */
+    int read32() throws EOFException {
+        require(4);
+        return buf.getInt();
+    }
+
+    /**
+     * 64-bit little endian integer
+     */
+    long read64() throws EOFException {
+        require(8);
+        return buf.getLong();
+    }
+
+    /**
+     * Encoded integer, 7 bits per byte, big endian
+     */
+    int readENC() throws EOFException {
+        return readENC(buf);
+    }
+
+    void readFully(byte[] b) throws EOFException {
+        require(b.length);
+        buf.get(b);
+    }
+
+    String readUTF8(int len) throws EOFException {
+        return readString(len, DirectoryIndex.UTF_8);
+    }
+
+    String readUTF16(int len) throws EOFException {
+        return readString(len, UTF_16LE);
+    }
+
+    private String readString(int len, Charset charset) throws EOFException {
+        require(len);
+        String s;
+        if (buf.hasArray()) {
+            s = new String(buf.array(), buf.arrayOffset() + buf.position(), len, charset);
+            buf.position(buf.position() + len);
+        } else {
+            byte[] b = new byte[len];
+            buf.get(b);
+            s = new String(b, charset);
+        }
+        return s;
+    }
+
+    /**
+     * Like "7C01FD10-7BAA-11D0-9E0C-00A0-C922-E6EC"
+     */
+    String readGUID() throws EOFException {
+        require(16);
+        char[] s = new char[38];
+        int p = hex(s, 0, buf.getInt() & 0xffffffffL, 8);
+        s[p++] = '-';
+        p = hex(s, p, buf.getShort() & 0xffff, 4);
+        s[p++] = '-';
+        p = hex(s, p, buf.getShort() & 0xffff, 4);
+        for (int i = 0; i < 4; i++) {
+            s[p++] = '-';
+            p = hex(s, p, buf.get() & 0xff, 2);
+            p = hex(s, p, buf.get() & 0xff, 2);
+        }
+        return new String(s);
+    }
+
+    private static int hex(char[] s, int p, long v, int digits) {
+        for (int i = digits - 1; i >= 0; i--) {
+            s[p + i] = HEX_DIGITS[(int) (v & 0xf)];
+            v >>>= 4;
+        }
+        return p + digits;
+    }
+
+    /**
+     * Encoded integer at the position of in, which is moved past it
+     */
+    static int readENC(ByteBuffer in) throws EOFException {
+        int r = 0;
+        for (;;) {
+            if (!in.hasRemaining()) throw new EOFException();
+            int b = in.get();
+            r = (r << 7) + (b & 0x7f);
+            if ((b & 0x80) == 0)
+                return r;
+        }
+    }
+
+    /**
+     * 16-bit little endian unsigned integer at index, whatever the byte order of in
+     */
+    static int le16(ByteBuffer in, int index) {
+        return (in.get(index) & 0xff) | (in.get(index + 1) & 0xff) << 8;
+    }
+
+    static int le32(ByteBuffer in, int index) {
+        return le16(in, index) | le16(in, index + 2) << 16;
+    }
+
+    static int le32(byte[] b, int offset) {
+        return (b[offset] & 0xff) | (b[offset + 1] & 0xff) << 8
+                | (b[offset + 2] & 0xff) << 16 | (b[offset + 3] & 0xff) << 24;
+    }
+
+    static long le64(byte[] b, int offset) {
+        return (le32(b, offset) & 0xffffffffL) | (long) le32(b, offset + 4) << 32;
+    }
+}
@@ -37,85 +37,237 @@
  */
 package cn.rui.chm;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.TreeMap;
 
 /**
- * Is it LRU?
+ * Segmented LRU cache, all operations take constant time.
+ * 
+ * Keys are spread over independently locked stripes, so threads rarely wait for each other.
+ * Each stripe is split into a probation and a protected part: new values go to probation,
+ * a value hit again is promoted to protected, and values are evicted from probation first.
+ * So a scan of values used once does not flush those used again and again.
+ * 
+ * The capacity is the sum of the weights of the values, which is their count by default.
  */
-class LRUCache<K extends Comparable<K>, V> {
-	
-	Map<K, Item> cacheMap = new TreeMap<K, Item>();
-	
-	private int capacity;
-	
-	public LRUCache(int capacity) {
+class LRUCache<K, V> {
+
+	/**
+	 * Weight of a value in the cache, like its size in bytes, computed once when it is put
+	 */
+	interface Weigher<K, V> {
+		int weigh(K key, V value);
+	}
+
+	// share of the protected part in a stripe
+	private static final int PROTECTED_PERCENT = 80;
+
+	private final long capacity;
+	private final Weigher<? super K, ? super V> weigher;
+	private final Stripe<K, V>[] stripes;
+
+	/**
+	 * @param capacity total weight of the values
+	 * @param stripes rounded down to a power of two, each one has an equal part of the capacity
+	 * @param weigher null to weigh every value as one
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public LRUCache(long capacity, int stripes, Weigher<? super K, ? super V> weigher) {
 		if (capacity < 1)
 			throw new IllegalArgumentException("capacity must be positive integer");
+		if (stripes < 1)
+			throw new IllegalArgumentException("stripes must be positive integer");
 		this.capacity = capacity;
-	}
-	
-	public synchronized V get(K key) {
-		Item item = cacheMap.get(key);
-		if (item == null)
-			return null;
-		
-		for(Item i: cacheMap.values()) {
-			i.hits --;
+		this.weigher = weigher;
+		int n = Integer.highestOneBit(stripes);
+		this.stripes = new Stripe[n];
+		for (int i = 0; i < n; i++) {
+			// the first stripes take the remainder
+			this.stripes[i] = new Stripe<K, V>(this, capacity / n + (i < capacity % n ? 1 : 0));
 		}
-		
-		item.hits += 2;
-		return item.value;
 	}
-	
-	public synchronized V prune() {
-		if (cacheMap.size() >= capacity) {
-			Item kick = null;
-			for (Item item: cacheMap.values()) {
-				if (kick == null || kick.hits > item.hits) {
-					kick = item;
-				}
-			}
-			cacheMap.remove(kick.key);
-			return kick.value;
-		}
-		return null;
+
+	private Stripe<K, V> stripeFor(Object key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return stripes[h & (stripes.length - 1)];
 	}
-	
-	public synchronized void put(K key, V val) {
-		if (cacheMap.containsKey(key)) { // just refresh the value
-			cacheMap.put(key, new Item(key, val));
-			return;
-		}
-		prune();
-		cacheMap.put(key, new Item(key, val));
+
+	public V get(K key) {
+		return stripeFor(key).get(key);
 	}
 
-	public synchronized void clear() {
-		cacheMap.clear();
+	/**
+	 * A value heavier than its stripe is not cached at all
+	 * @return false if it is not cached
+	 */
+	public boolean put(K key, V val) {
+		int weight = (weigher == null) ? 1 : weigher.weigh(key, val);
+		if (weight < 0)
+			throw new IllegalArgumentException("negative weight " + weight);
+		return stripeFor(key).put(key, val, weight);
 	}
-	
+
+	public V remove(K key) {
+		return stripeFor(key).remove(key);
+	}
+
+	public void clear() {
+		for (Stripe<K, V> stripe : stripes) {
+			stripe.clear();
+		}
+	}
+
 	public int size() {
-		return cacheMap.size();
+		int size = 0;
+		for (Stripe<K, V> stripe : stripes) {
+			size += stripe.size();
+		}
+		return size;
 	}
-	
+
+	/**
+	 * Total weight of the cached values
+	 */
+	public long weight() {
+		long weight = 0;
+		for (Stripe<K, V> stripe : stripes) {
+			weight += stripe.weight();
+		}
+		return weight;
+	}
+
 	public String toString() {
-		return "LRUCache " + size() + "/" + capacity + ": " + cacheMap.toString();
+		return "LRUCache " + size() + " values, " + weight() + "/" + capacity;
 	}
-	
-	class Item {
-		K key;
-		V value;
-		int hits;
-		
-		public Item(K key, V value) {
+
+	/**
+	 * Called whenever a value leaves the cache: evicted, replaced, removed or cleared.
+	 * It is called holding the lock of the stripe, so it must not call back into the cache.
+	 */
+	protected void removed(K key, V value) {
+	}
+
+	static final class Item<K, V> {
+		final K key;
+		final V value;
+		final int weight;
+
+		Item(K key, V value, int weight) {
 			this.key = key;
 			this.value = value;
-			this.hits = 1;
+			this.weight = weight;
+		}
+	}
+
+	static final class Stripe<K, V> {
+		final LRUCache<K, V> cache;
+		// both in LRU order, the eldest first
+		final LinkedHashMap<K, Item<K, V>> probation = new LinkedHashMap<K, Item<K, V>>(16, 0.75f, true);
+		final LinkedHashMap<K, Item<K, V>> protect = new LinkedHashMap<K, Item<K, V>>(16, 0.75f, true);
+		final long capacity;
+		final long protectedCapacity;
+		long probationWeight;
+		long protectedWeight;
+
+		Stripe(LRUCache<K, V> cache, long capacity) {
+			this.cache = cache;
+			this.capacity = capacity;
+			this.protectedCapacity = capacity * PROTECTED_PERCENT / 100;
+		}
+
+		synchronized V get(K key) {
+			Item<K, V> item = protect.get(key);
+			if (item != null) {
+				return item.value;
+			}
+			item = probation.remove(key);
+			if (item == null) {
+				return null;
+			}
+			// hit again, promote it
+			probationWeight -= item.weight;
+			protect.put(key, item);
+			protectedWeight += item.weight;
+			// demote the eldest protected ones back to probation, but never the value just hit
+			Iterator<Map.Entry<K, Item<K, V>>> it = protect.entrySet().iterator();
+			while (protectedWeight > protectedCapacity) {
+				Map.Entry<K, Item<K, V>> eldest = it.next();
+				if (eldest.getValue() == item) {
+					break;
+				}
+				it.remove();
+				protectedWeight -= eldest.getValue().weight;
+				probation.put(eldest.getKey(), eldest.getValue());
+				probationWeight += eldest.getValue().weight;
+			}
+			return item.value;
+		}
+
+		synchronized boolean put(K key, V value, int weight) {
+			remove(key);
+			if (weight > capacity) {
+				return false;
+			}
+			Item<K, V> item = new Item<K, V>(key, value, weight);
+			probation.put(key, item);
+			probationWeight += weight;
+			// evict from probation first, but never the value just put
+			Iterator<Item<K, V>> it = probation.values().iterator();
+			while (probationWeight + protectedWeight > capacity) {
+				Item<K, V> eldest = it.next();
+				if (eldest == item) {
+					break;
+				}
+				it.remove();
+				probationWeight -= eldest.weight;
+				cache.removed(eldest.key, eldest.value);
+			}
+			it = protect.values().iterator();
+			while (probationWeight + protectedWeight > capacity) {
+				Item<K, V> eldest = it.next();
+				it.remove();
+				protectedWeight -= eldest.weight;
+				cache.removed(eldest.key, eldest.value);
+			}
+			return true;
+		}
+
+		synchronized V remove(K key) {
+			Item<K, V> item = probation.remove(key);
+			if (item == null) {
+				item = protect.remove(key);
+				if (item == null) {
+					return null;
+				}
+				protectedWeight -= item.weight;
+			} else {
+				probationWeight -= item.weight;
+			}
+			cache.removed(key, item.value);
+			return item.value;
 		}
-		
-		public String toString() {
-			return "(" + hits + ")";
+
+		synchronized void clear() {
+			for (Item<K, V> item : probation.values()) {
+				cache.removed(item.key, item.value);
+			}
+			for (Item<K, V> item : protect.values()) {
+				cache.removed(item.key, item.value);
+			}
+			probation.clear();
+			protect.clear();
+			probationWeight = 0;
+			protectedWeight = 0;
+		}
+
+		synchronized int size() {
+			return probation.size() + protect.size();
+		}
+
+		synchronized long weight() {
+			return probationWeight + protectedWeight;
 		}
 	}
 }
@@ -47,92 +47,114 @@ class LZXTree {
 	public static final int LZX_LENTABLE_SAFETY		= 64; // allow length table decoding overruns
 	public static final int LZX_PRETREE_NUM_ELEMENTS = 20;
 
+	static final int MAX_CODE_LENGTH = 16;
+
 	int bits;
 	int max_symbol;
 	
-	int[] symbols;
+	/*
+	 * Two-level decoding table, an entry is (symbol << 5) | code length.
+	 * The first 1 << bits entries are indexed by the next bits bits.
+	 * Codes longer than bits are linked to a sub table by a negative entry
+	 * LINK | (sub table offset << 5) | sub table bits, indexed by the following bits.
+	 */
+	int[] table;
 	byte[] lens;
+
+	private static final int LINK = 0x80000000;
+
+	// scratch of makeSymbolTable
+	private final int[] counts = new int[MAX_CODE_LENGTH + 1];
+	private final int[] codes = new int[MAX_CODE_LENGTH + 1];
+	private final int[] starts = new int[MAX_CODE_LENGTH + 2];
+	private final int[] sorted;
+
+	// reused by readLengthTable
+	private LZXTree preTree;
 	
 	LZXTree(int bits, int max) {
 		this.bits = bits;
 		this.max_symbol = max;
 		
-		symbols = new int[ (1 << bits) + (max << 1) ];
+		table = new int[1 << bits];
 		lens = new byte[max + LZX_LENTABLE_SAFETY];
+		sorted = new int[max];
 	}
 	
 	/**
-	 * This function was coded by David Tritscher. It builds a fast huffman
-	 * decoding table out of just a canonical huffman code lengths table.
+	 * Build the decoding table out of the canonical huffman code lengths table.
+	 * Codes are assigned in order of length, then of symbol, so symbols are sorted by length first.
 	 */
 	void makeSymbolTable() throws DataFormatException {
-		int bit_num = 1;
-		int pos = 0; // the current position in the decode table
-		int table_mask = 1 << bits;
-		int bit_mask = table_mask >> 1; // don't do 0 length codes
-		int next_symbol = bit_mask; // base of allocation for long codes
-		
-		// fill entries for codes short enough for a direct mapping
-		while (bit_num <= bits) {
-			for (int symbol = 0; symbol < max_symbol; symbol++) {
-				if ( lens[symbol] == bit_num ) {
-					int leaf = pos;
-
-					if( (pos += bit_mask) > table_mask )	// ensure capacity
-						throw new DataFormatException("symbol table overruns");
-					// fill all possible lookups of this symbol with the symbol itself
-					while(leaf < pos) symbols[leaf ++] = symbol;
-				}
-			}
-			bit_mask >>= 1;
-			bit_num ++;
+		int[] counts = this.counts;
+		for (int len = 0; len <= MAX_CODE_LENGTH; len ++) counts[len] = 0;
+		for (int symbol = 0; symbol < max_symbol; symbol ++) {
+			int len = lens[symbol];
+			if (len < 0 || len > MAX_CODE_LENGTH)
+				throw new DataFormatException("erroneous symbol table");
+			counts[len] ++;
 		}
 
-		// if there are any codes longer than table.bits
-		if (pos != table_mask) {
-			// clear the remainder of the table
-			for (int i = pos; i < table_mask; i ++ ) symbols[i] = 0;
-
-			// give ourselves room for codes to grow by up to 16 more bits
-			pos <<= 16;
-			table_mask <<= 16;
-			bit_mask = 1 << 15;
+		// first code of each length, left aligned in MAX_CODE_LENGTH bits
+		int pos = 0;
+		int maxLen = 0;
+		for (int len = 1; len <= MAX_CODE_LENGTH; len ++) {
+			codes[len] = pos;
+			pos += counts[len] << (MAX_CODE_LENGTH - len);
+			if (counts[len] > 0)
+				maxLen = len;
+		}
+		if (pos != 1 << MAX_CODE_LENGTH) {
+			if (pos > 1 << MAX_CODE_LENGTH)
+				throw new DataFormatException("symbol table overruns");
+			// either erroneous table, or all elements are 0
+			if (maxLen != 0)
+				throw new DataFormatException("erroneous symbol table");
+			for (int i = 0; i < 1 << bits; i ++) table[i] = 0;
+			return;
+		}
 
-			while (bit_num <= 16) {
-				for (int symbol = 0; symbol < max_symbol; symbol++) {
-					if (lens[symbol] == bit_num) {
-						int leaf = pos >> 16;
-						for (int fill = 0; fill < bit_num - bits; fill++) {
-							// if this path hasn't been taken yet, 'allocate' two entries
-							if (symbols[leaf] == 0) {
-								symbols[ next_symbol << 1 ] = 0;
-								symbols[ (next_symbol << 1) + 1 ] = 0;
-								symbols[leaf] = (next_symbol ++);
-							}
-							// follow the path and select either left or right for next bit
-							leaf = symbols[leaf] << 1;
-							if ( ((pos >> (15-fill)) & 1) > 0) // odd
-								leaf ++;
-						}
-						symbols[leaf] = symbol;
+		// counting sort by length, stable so symbols stay in order within a length
+		int[] starts = this.starts;
+		starts[1] = 0;
+		for (int len = 1; len <= MAX_CODE_LENGTH; len ++) starts[len + 1] = starts[len] + counts[len];
+		for (int symbol = 0; symbol < max_symbol; symbol ++) {
+			int len = lens[symbol];
+			if (len > 0) sorted[starts[len] ++] = symbol;
+		}
+		int n = starts[MAX_CODE_LENGTH + 1];
 
-						if ((pos += bit_mask) > table_mask) 
-							throw new DataFormatException("symbol table overflow");
+		int subBits = maxLen > bits ? maxLen - bits : 0;
+		int next = 1 << bits; // next free sub table
+		int linkedIndex = -1;
+		for (int i = 0; i < n; i ++) {
+			int symbol = sorted[i];
+			int len = lens[symbol];
+			int code = codes[len];
+			codes[len] += 1 << (MAX_CODE_LENGTH - len);
+			int entry = symbol << 5 | len;
+			int index = code >>> (MAX_CODE_LENGTH - bits);
+			if (len <= bits) {
+				// fill all possible lookups of this symbol with the symbol itself
+				for (int end = index + (1 << (bits - len)); index < end; index ++) table[index] = entry;
+			} else {
+				if (index != linkedIndex) {
+					// codes are increasing, this is the first one with this prefix
+					int size = next + (1 << subBits);
+					if (size > table.length) {
+						int[] grown = new int[Math.max(size, table.length * 2)];
+						System.arraycopy(table, 0, grown, 0, next);
+						table = grown;
 					}
+					table[index] = LINK | next << 5 | subBits;
+					linkedIndex = index;
+					next += 1 << subBits;
 				}
-				bit_mask >>= 1;
-				bit_num ++;
+				int sub = (table[index] & ~LINK) >>> 5;
+				int subIndex = (code >>> (MAX_CODE_LENGTH - maxLen)) & ((1 << subBits) - 1);
+				for (int end = subIndex + (1 << (maxLen - len)); subIndex < end; subIndex ++) table[sub + subIndex] = entry;
 			}
 		}
-
-		// full table?
-		if (pos == table_mask)
-			return;
-
-		// either erroneous table, or all elements are 0 - let's find out.
-		for (short sym = 0; sym < max_symbol; sym++) 
-			if (lens[sym] != 0) 
-				throw new DataFormatException("erroneous symbol table");
 	}
 	
 	/** 
@@ -140,8 +162,12 @@ class LZXTree {
 	 * first to last in the given table. The code lengths are stored in their
 	 * own special LZX way.
 	 */
-	void readLengthTable(BitsInputStream bin, int first, int last) throws DataFormatException, IOException {
-		LZXTree preTree = new LZXTree(6, LZX_PRETREE_NUM_ELEMENTS);
+	void readLengthTable(BitReader bin, int first, int last) throws DataFormatException, IOException {
+		LZXTree preTree = this.preTree;
+		if (preTree == null) {
+			preTree = new LZXTree(6, LZX_PRETREE_NUM_ELEMENTS);
+			this.preTree = preTree;
+		}
 		for (int i = 0; i < preTree.max_symbol; i++)
 			preTree.lens[i] = (byte) bin.readLE(4);
 		preTree.makeSymbolTable();
@@ -174,24 +200,19 @@ class LZXTree {
 	 * stated table and return it.
 	 * @throws IOException 
 	 */
-	int readHuffmanSymbol(BitsInputStream bin) throws IOException {
-		int next = bin.peekUnder(16);
-		
+	int readHuffmanSymbol(BitReader bin) throws IOException {
 		/* TODO: it's very strange that bin.peek(bits) will raise EOFException,
 		 * we have to use peekUnder(bits) here, but how should it happen like this?
 		 */
-		int symbol = symbols[bin.peekUnder(bits)]; 
-		if ( symbol >= max_symbol) {
-			int j = 1 << (16 - bits);
-			do {
-				j >>= 1;
-				symbol <<= 1;
-				symbol |= (next & j) > 0 ? 1 : 0;
-				symbol = symbols[symbol];
-			} while ( symbol >= max_symbol );
+		int next = bin.peekUnder(MAX_CODE_LENGTH);
+		int entry = table[next >>> (MAX_CODE_LENGTH - bits)];
+		if (entry < 0) {
+			int subBits = entry & 0x1f;
+			int sub = (entry & ~LINK) >>> 5;
+			entry = table[sub + ((next >>> (MAX_CODE_LENGTH - bits - subBits)) & ((1 << subBits) - 1))];
 		}
-		bin.readLE(lens[symbol]);
-		return symbol;
+		bin.readLE(entry & 0x1f);
+		return entry >>> 5;
 	}
 
 	public void clear() {
@@ -0,0 +1,94 @@
+package cn.rui.chm;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Maps the whole file into memory, reads are slices of the mapping without lock and copy.
+ * A single mapping can not exceed 2G, so the file is mapped in segments.
+ * Adjacent segments overlap, so a read shorter than SEGMENT_OVERLAP never straddles two of them.
+ * NOTE: the mappings are released by GC, not by close().
+ */
+class MappedFileStorage implements CHMStorage, CHMStorage.Transferable {
+    static final int SEGMENT_SIZE = 1 << 30;
+    static final int SEGMENT_OVERLAP = 1 << 24;
+
+    private final RandomAccessFile fileAccess;
+    private final String name;
+    private final long length;
+    private final MappedByteBuffer[] segments;
+
+    MappedFileStorage(File file) throws IOException {
+        fileAccess = new RandomAccessFile(file, "r");
+        name = file.getPath();
+        try {
+            FileChannel channel = fileAccess.getChannel();
+            length = channel.size();
+            segments = new MappedByteBuffer[(int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for (int i = 0; i < segments.length; i++) {
+                long position = (long) i * SEGMENT_SIZE;
+                long size = Math.min(length - position, SEGMENT_SIZE + SEGMENT_OVERLAP);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+            }
+        } catch (IOException ex) {
+            fileAccess.close();
+            throw ex;
+        }
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public ByteBuffer read(long offset, int len) throws IOException {
+        if (offset < 0 || len < 0 || offset + len > length) {
+            throw new EOFException("read " + len + " bytes at " + offset + " exceeds file length " + length);
+        }
+        if (len == 0) {
+            return ByteBuffer.allocate(0);
+        }
+        ByteBuffer segment = segments[(int) (offset / SEGMENT_SIZE)].duplicate();
+        int pos = (int) (offset % SEGMENT_SIZE);
+        if (pos + len <= segment.capacity()) {
+            segment.limit(pos + len);
+            segment.position(pos);
+            return segment.slice();
+        }
+        // straddles two mappings, copy it
+        ByteBuffer copy = ByteBuffer.allocate(len);
+        while (copy.hasRemaining()) {
+            segment = segments[(int) (offset / SEGMENT_SIZE)].duplicate();
+            pos = (int) (offset % SEGMENT_SIZE);
+            int n = Math.min(copy.remaining(), segment.capacity() - pos);
+            segment.limit(pos + n);
+            segment.position(pos);
+            copy.put(segment);
+            offset += n;
+        }
+        copy.flip();
+        return copy;
+    }
+
+    @Override
+    public void transferTo(long offset, long len, WritableByteChannel out) throws IOException {
+        FileChannelStorage.transferFully(fileAccess.getChannel(), offset, len, out);
+    }
+
+    @Override
+    public void close() throws IOException {
+        fileAccess.close();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
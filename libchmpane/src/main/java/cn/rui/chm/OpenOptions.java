@@ -0,0 +1,71 @@
+package cn.rui.chm;
+
+import lombok.Getter;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Options for opening a CHMFile, setters return this so they can be chained.
+ */
+@Getter
+public class OpenOptions {
+    /**
+     * Read the whole directory region in a single I/O at open, and parse all the chunks out of it.
+     * The resource list is complete right after open.
+     */
+    private boolean preloadDirectory = false;
+
+    public OpenOptions setPreloadDirectory(boolean preloadDirectory) {
+        this.preloadDirectory = preloadDirectory;
+        return this;
+    }
+
+    /**
+     * Directory of the sidecar index files, null to disable them.
+     * The parsed directory, LZXC reset table, #SYSTEM and sitemaps are saved there once the directory is complete,
+     * and again when the sitemaps are first used, nothing is parsed just for it.
+     * They are loaded from there on the next opens of the same unmodified file.
+     * Only applies to CHMFile opened from a File.
+     */
+    private File indexCacheDirectory = null;
+
+    public OpenOptions setIndexCacheDirectory(File indexCacheDirectory) {
+        this.indexCacheDirectory = indexCacheDirectory;
+        return this;
+    }
+
+    /**
+     * Executor inflating the next LZX reset intervals of a compressed resource in the background,
+     * while its stream or channel consumes the current one. Null to disable readahead.
+     * The executor is not shut down by CHMFile.close().
+     */
+    private ExecutorService readaheadExecutor = null;
+
+    public OpenOptions setReadaheadExecutor(ExecutorService readaheadExecutor) {
+        this.readaheadExecutor = readaheadExecutor;
+        return this;
+    }
+
+    /**
+     * At most so many intervals are inflated ahead for each resource being read, 0 to disable readahead.
+     */
+    private int readaheadIntervals = 2;
+
+    public OpenOptions setReadaheadIntervals(int readaheadIntervals) {
+        this.readaheadIntervals = readaheadIntervals;
+        return this;
+    }
+
+    /**
+     * Cache of the decompressed data, shared with the other CHMFile opened with it,
+     * to put a cap on the memory of many open files. Null for a cache of its own,
+     * sized by the LZXC control data of the file.
+     */
+    private BlockCache blockCache = null;
+
+    public OpenOptions setBlockCache(BlockCache blockCache) {
+        this.blockCache = blockCache;
+        return this;
+    }
+}
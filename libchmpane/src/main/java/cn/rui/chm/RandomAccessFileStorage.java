@@ -0,0 +1,51 @@
+package cn.rui.chm;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Reads by seek and read on a single RandomAccessFile, all reads are serialized.
+ */
+class RandomAccessFileStorage implements CHMStorage, CHMStorage.Transferable {
+    private final RandomAccessFile fileAccess;
+    private final String name;
+
+    RandomAccessFileStorage(File file) throws FileNotFoundException {
+        fileAccess = new RandomAccessFile(file, "r");
+        name = file.getPath();
+    }
+
+    @Override
+    public long length() throws IOException {
+        return fileAccess.length();
+    }
+
+    @Override
+    public ByteBuffer read(long offset, int len) throws IOException {
+        byte[] b = new byte[len];
+        synchronized (fileAccess) {
+            fileAccess.seek(offset);
+            fileAccess.readFully(b);
+        }
+        return ByteBuffer.wrap(b);
+    }
+
+    @Override
+    public void transferTo(long offset, long len, WritableByteChannel out) throws IOException {
+        FileChannelStorage.transferFully(fileAccess.getChannel(), offset, len, out);
+    }
+
+    @Override
+    public void close() throws IOException {
+        fileAccess.close();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,114 @@
+package cn.rui.chm;
+
+import java.util.regex.Pattern;
+
+/**
+ * Predicate on resource names for CHMFile.resources(filter), names are matched ignoring case like the directory.
+ */
+public abstract class ResourceFilter {
+    public static final ResourceFilter ALL = new ResourceFilter() {
+        @Override
+        public boolean accept(String name) {
+            return true;
+        }
+    };
+
+    public abstract boolean accept(String name);
+
+    /**
+     * All the accepted names start with the prefix, ignoring case,
+     * so only that range of the directory is scanned.
+     * @return "/" if unknown
+     */
+    public String getPrefix() {
+        return "/";
+    }
+
+    /**
+     * Names with any of the extensions, like "htm" or ".htm"
+     */
+    public static ResourceFilter extension(String... extensions) {
+        final String[] suffixes = new String[extensions.length];
+        for (int i = 0; i < extensions.length; i++) {
+            suffixes[i] = extensions[i].startsWith(".") ? extensions[i] : "." + extensions[i];
+        }
+        return new ResourceFilter() {
+            @Override
+            public boolean accept(String name) {
+                for (String suffix : suffixes) {
+                    if (name.regionMatches(true, name.length() - suffix.length(), suffix, 0, suffix.length())) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Glob on the full name like "/images/*.gif" or "/**&#47;*.htm".
+     * '*' and '?' do not match '/', "**" does.
+     * A pattern without '/' is matched against the last segment only, like "*.hhc".
+     */
+    public static ResourceFilter glob(String glob) {
+        final boolean fullName = glob.indexOf('/') >= 0;
+        final Pattern pattern = Pattern.compile(globToRegex(glob), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        final String prefix = fullName && glob.startsWith("/") ? literalPrefix(glob) : "/";
+        return new ResourceFilter() {
+            @Override
+            public boolean accept(String name) {
+                if (!fullName) {
+                    int end = name.endsWith("/") ? name.length() - 1 : name.length();
+                    name = name.substring(name.lastIndexOf('/', end - 1) + 1);
+                }
+                return pattern.matcher(name).matches();
+            }
+
+            @Override
+            public String getPrefix() {
+                return prefix;
+            }
+        };
+    }
+
+    private static String literalPrefix(String glob) {
+        int i = 0;
+        while (i < glob.length() && glob.charAt(i) != '*' && glob.charAt(i) != '?') {
+            i++;
+        }
+        return glob.substring(0, i);
+    }
+
+    private static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        int literalStart = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c != '*' && c != '?') {
+                continue;
+            }
+            if (literalStart < i) {
+                regex.append(Pattern.quote(glob.substring(literalStart, i)));
+            }
+            if (c == '?') {
+                regex.append("[^/]");
+            } else if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                i++;
+                if (i + 1 < glob.length() && glob.charAt(i + 1) == '/') {
+                    // "**/" matches zero or more folders
+                    i++;
+                    regex.append("(?:.*/)?");
+                } else {
+                    regex.append(".*");
+                }
+            } else {
+                regex.append("[^/]*");
+            }
+            literalStart = i + 1;
+        }
+        if (literalStart < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(literalStart)));
+        }
+        return regex.toString();
+    }
+}
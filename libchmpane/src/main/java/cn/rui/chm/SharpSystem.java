@@ -4,8 +4,10 @@ import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.ToString;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.*;
 
@@ -17,7 +19,23 @@ import java.util.*;
 @Getter
 public class SharpSystem {
     public SharpSystem(InputStream inSharpSystem) throws IOException {
-        LEInputStream in = new LEInputStream(inSharpSystem);
+        this(readAll(inSharpSystem));
+    }
+
+    private static ByteBuffer readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        for (int n; (n = in.read(buf)) > 0; ) {
+            out.write(buf, 0, n);
+        }
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    /**
+     * @param bufSharpSystem the whole /#SYSTEM, its position is moved to the end
+     */
+    public SharpSystem(ByteBuffer bufSharpSystem) throws IOException {
+        LEBuffer in = new LEBuffer(bufSharpSystem);
         version = in.read32();
         Integer lcid = null;
         boolean fullTextSearch = false;
@@ -30,17 +48,17 @@ public class SharpSystem {
             entries.add(entry);
             if (entry.code == ENTRY_CODE_OPTIONS) {
                 // entry.data.size() must be >= 4
-                lcid = LEInputStream.bytesToInt(entry.data);
-                int fts = LEInputStream.bytesToInt(entry.data, 8);
+                lcid = LEBuffer.le32(entry.data, 0);
+                int fts = LEBuffer.le32(entry.data, 8);
                 fullTextSearch = (fts != 0);
-                long windowsTick = LEInputStream.bytesToLong(entry.data, 0x14);
+                long windowsTick = LEBuffer.le64(entry.data, 0x14);
                 createTime = Utils.windowsTickToDate(windowsTick);
             }
             if (entry.code == ENTRY_CODE_BINARY_TOC) {
-                binaryToc = LEInputStream.bytesToInt(entry.data);
+                binaryToc = LEBuffer.le32(entry.data, 0);
             }
             if (entry.code == ENTRY_CODE_BINARY_INDEX) {
-                binaryIndex = LEInputStream.bytesToInt(entry.data);
+                binaryIndex = LEBuffer.le32(entry.data, 0);
             }
         }
         if (lcid == null) {
@@ -87,7 +105,7 @@ public class SharpSystem {
     @EqualsAndHashCode
     @ToString
     public static class Entry {
-        public static Entry build(LEInputStream in) throws IOException {
+        static Entry build(LEBuffer in) throws IOException {
             int code = in.read16();
             int dataLen = in.read16();
             byte[] data = new byte[dataLen];
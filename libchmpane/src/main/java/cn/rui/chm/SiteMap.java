@@ -13,9 +13,11 @@ import org.htmlparser.util.ParserException;
 import org.htmlparser.visitors.NodeVisitor;
 import org.mozilla.universalchardet.UniversalDetector;
 
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.*;
 import java.util.logging.Logger;
@@ -96,6 +98,67 @@ public class SiteMap {
         return detector.getDetectedCharset();
     }
 
+    /**
+     * Binary form for the sidecar index file, read back by read(ByteBuffer)
+     */
+    void write(DataOutput out) throws IOException {
+        writeItem(out, root);
+    }
+
+    static SiteMap read(ByteBuffer in) {
+        SiteMap sitemap = new SiteMap();
+        readItem(in, sitemap.root);
+        return sitemap;
+    }
+
+    private static void writeItem(DataOutput out, Item item) throws IOException {
+        IndexCacheFile.writeString(out, item.name);
+        IndexCacheFile.writeString(out, item.local);
+        IndexCacheFile.writeString(out, item.imageNumber);
+        IndexCacheFile.writeString(out, item.newImage);
+        if (item.params == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(item.params.size());
+            for (Map.Entry<String, String> param : item.params.entrySet()) {
+                IndexCacheFile.writeString(out, param.getKey());
+                IndexCacheFile.writeString(out, param.getValue());
+            }
+        }
+        if (item.children == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(item.children.size());
+            for (Item child : item.children) {
+                writeItem(out, child);
+            }
+        }
+    }
+
+    private static void readItem(ByteBuffer in, Item item) {
+        item.name = IndexCacheFile.readString(in);
+        item.local = IndexCacheFile.readString(in);
+        item.imageNumber = IndexCacheFile.readString(in);
+        item.newImage = IndexCacheFile.readString(in);
+        int paramCount = in.getInt();
+        if (paramCount >= 0) {
+            IndexCacheFile.checkCount(in, paramCount, 8);
+            item.params = new HashMap<String, String>();
+            for (int i = 0; i < paramCount; i++) {
+                item.params.put(IndexCacheFile.readString(in), IndexCacheFile.readString(in));
+            }
+        }
+        int childCount = in.getInt();
+        if (childCount >= 0) {
+            item.children = new ArrayList<Item>(IndexCacheFile.checkCount(in, childCount, 4));
+            for (int i = 0; i < childCount; i++) {
+                Item child = new Item();
+                readItem(in, child);
+                item.children.add(child);
+            }
+        }
+    }
+
     @EqualsAndHashCode
     @ToString
     public static class Item {
@@ -1,6 +1,11 @@
 package cn.rui.chm;
 
 import lombok.experimental.UtilityClass;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicReference;
 
 @UtilityClass
@@ -25,6 +30,29 @@ public  class Utils {
         return (T)(value == cached ? null : value);
     }
 
+    /**
+     * Set the value which lazyGet returns, null included
+     */
+    public void lazySet(AtomicReference<Object> cached, Object value) {
+        cached.set(value == null ? cached : value);
+    }
+
+    /**
+     * The value which lazyGet returns, without computing it
+     * @return null if not computed yet, or if it is null, see isLazySet
+     */
+    public <T> T lazyPeek(AtomicReference<Object> cached) {
+        Object value = cached.get();
+        return (T)(value == cached ? null : value);
+    }
+
+    /**
+     * @return true once lazyGet or lazySet has set a value, null included
+     */
+    public boolean isLazySet(AtomicReference<Object> cached) {
+        return cached.get() != null;
+    }
+
     public interface SupplierWithException<T, EX extends Throwable> {
         T get() throws EX;
     }
@@ -46,6 +74,28 @@ public  class Utils {
         return (T)(value == cached ? null : value);
     }
 
+    /**
+     * Wait for the future, the IOException thrown by the task is rethrown as it is
+     */
+    public <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
     public static final long WINDOWS_TICK = 10000L;  //10的7次方
     public static final long SEC_TO_UNIX_EPOCH = 11644473600000L; //1601与1970的时间间隔 毫秒
 
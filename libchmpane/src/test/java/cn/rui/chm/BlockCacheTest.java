@@ -0,0 +1,118 @@
+package cn.rui.chm;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class BlockCacheTest extends TestCase {
+
+	private static byte[] interval(int length, int fill) {
+		byte[] data = new byte[length];
+		java.util.Arrays.fill(data, (byte) fill);
+		return data;
+	}
+
+	private static byte first(BlockCache.Interval interval) {
+		byte[] b = new byte[1];
+		interval.get(0, b, 0, 1);
+		return b[0];
+	}
+
+	public void testFileShareIsLRU() {
+		BlockCache cache = new BlockCache(1000, 300);
+		BlockCache.Owner file = cache.newOwner();
+		file.put(0, interval(100, 0));
+		file.put(1, interval(100, 1));
+		file.put(2, interval(100, 2));
+		// used again, 1 is now the least recently used
+		assertNotNull(file.get(0));
+		file.put(3, interval(100, 3));
+		assertNull(file.get(1));
+		assertNotNull(file.get(0));
+		assertNotNull(file.get(2));
+		assertNotNull(file.get(3));
+		assertEquals(300, cache.size());
+	}
+
+	public void testFilesShareTheBudget() {
+		BlockCache cache = new BlockCache(400, 300);
+		BlockCache.Owner file1 = cache.newOwner();
+		BlockCache.Owner file2 = cache.newOwner();
+		for (int i = 0; i < 3; i++) {
+			file1.put(i, interval(100, i));
+			file2.put(i, interval(100, 10 + i));
+		}
+		assertTrue(cache.size() <= 400);
+		// same interval numbers, different files
+		BlockCache.Interval interval = file2.get(2);
+		assertNotNull(interval);
+		assertEquals(12, first(interval));
+	}
+
+	public void testClearOnClose() {
+		BlockCache cache = new BlockCache(1000);
+		BlockCache.Owner file1 = cache.newOwner();
+		BlockCache.Owner file2 = cache.newOwner();
+		file1.put(0, interval(100, 0));
+		file2.put(0, interval(100, 1));
+		file1.clear();
+		assertNull(file1.get(0));
+		assertNotNull(file2.get(0));
+		assertEquals(100, cache.size());
+		// late intervals of a closed file are not cached
+		file1.put(1, interval(100, 1));
+		assertNull(file1.get(1));
+		assertEquals(100, cache.size());
+	}
+
+	public void testTooHeavyIsNotCached() {
+		BlockCache cache = new BlockCache(100);
+		BlockCache.Owner file = cache.newOwner();
+		BlockCache.Interval interval = file.put(0, interval(200, 7));
+		assertEquals(7, first(interval));
+		assertNull(file.get(0));
+		assertEquals(0, cache.size());
+	}
+
+	public void testOffHeapRetainedSurvivesEviction() {
+		BlockCache cache = new BlockCache(100, 100, true);
+		BlockCache.Owner file = cache.newOwner();
+		byte[] data = interval(100, 5);
+		BlockCache.Interval interval = file.put(0, data);
+		// copied, the array can be reused
+		data[0] = 9;
+		assertEquals(5, first(interval));
+		assertFalse(interval.view(0, 100).hasArray());
+		file.put(1, interval(100, 6)); // evicts 0
+		assertNull(file.get(0));
+		// still retained by this reader
+		assertEquals(5, first(interval));
+		interval.release();
+		assertFalse(interval.retain()); // recycled
+		assertEquals(6, first(file.get(1)));
+	}
+
+	public void testIdlePoolIsBounded() {
+		BlockCache cache = new BlockCache(1000);
+		int maxIdle = Runtime.getRuntime().availableProcessors();
+		Set<byte[]> given = new HashSet<byte[]>();
+		for (int i = 0; i <= maxIdle; i++) {
+			byte[] array = new byte[64];
+			given.add(array);
+			cache.giveBack(array);
+		}
+		int reused = 0;
+		for (int i = 0; i <= maxIdle; i++) {
+			if (given.contains(cache.takeArray(64))) {
+				reused++;
+			}
+		}
+		assertEquals(maxIdle, reused);
+
+		Inflater inflater = cache.takeInflater(0x8000);
+		cache.giveBack(0x8000, inflater);
+		assertSame(inflater, cache.takeInflater(0x8000));
+		assertNotSame(inflater, cache.takeInflater(0x10000));
+	}
+}
@@ -0,0 +1,123 @@
+package cn.rui.chm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class DirectoryIndexTest extends TestCase {
+
+	private static final String[] NAMES = {
+		"#IDXHDR", "$FIftiMain", "/", "/html/", "/html/API/", "/html/api/index.htm",
+		"/html/Über.htm", "/images/a.gif", "/images/B.GIF", "/toc.hhc", "/中文/页面.htm", "::DataSpace/NameList",
+	};
+
+	private static DirectoryIndex newIndex() {
+		List<String> names = new ArrayList<String>(Arrays.asList(NAMES));
+		Collections.sort(names, String.CASE_INSENSITIVE_ORDER);
+		List<CHMFile.ResourceEntry> entries = new ArrayList<CHMFile.ResourceEntry>();
+		for (int i = 0; i < names.size(); i++) {
+			entries.add(new CHMFile.ResourceEntry(names.get(i), i % 2, i * 100L, i));
+		}
+		return new DirectoryIndex(entries);
+	}
+
+	public void testFoldedHashIgnoresCase() {
+		assertEquals(DirectoryIndex.foldedHash("/HTML/Index.htm"), DirectoryIndex.foldedHash("/html/index.HTM"));
+		assertEquals(DirectoryIndex.foldedHash("/ÜBER.htm"), DirectoryIndex.foldedHash("/über.htm"));
+		assertFalse(DirectoryIndex.foldedHash("/a.htm") == DirectoryIndex.foldedHash("/b.htm"));
+	}
+
+	public void testGetEntryIgnoresCase() {
+		DirectoryIndex index = newIndex();
+		for (String name : NAMES) {
+			assertEquals(name, index.getEntry(name).getName());
+			assertEquals(name, index.getEntry(name.toUpperCase()).getName());
+			assertEquals(name, index.getEntry(name.toLowerCase()).getName());
+			// created once, looking it up again allocates nothing
+			assertSame(index.getEntry(name), index.getEntry(name.toUpperCase()));
+		}
+		assertNull(index.getEntry("/html/api/index.html"));
+		assertNull(index.getEntry("/html/api"));
+		assertNull(index.getEntry("/nothing"));
+	}
+
+	public void testBinarySearch() {
+		DirectoryIndex index = newIndex();
+		assertEquals(NAMES.length, index.size());
+		for (int i = 0; i < index.size(); i++) {
+			String name = index.getName(i);
+			assertEquals(i, index.binarySearch(name));
+			assertEquals(0, index.compare(i, name.toUpperCase()));
+		}
+		assertEquals(-1, index.binarySearch(""));
+		assertEquals(-NAMES.length - 1, index.binarySearch("￿"));
+	}
+
+	public void testFoldersAreShared() {
+		DirectoryIndex index = newIndex();
+		// "/", "/html/", "/html/api/", "/images/", "/中文/" and "::DataSpace/", each one stored once
+		assertEquals(6, index.folderCount());
+		List<CHMFile.ResourceEntry> entries = new ArrayList<CHMFile.ResourceEntry>();
+		for (int i = 0; i < 100; i++) {
+			entries.add(new CHMFile.ResourceEntry(String.format("/html/api/java/util/page%03d.htm", i), 1, i, i));
+		}
+		DirectoryIndex deep = new DirectoryIndex(entries);
+		// "/", "html/", "api/", "java/" and "util/" for all of them
+		assertEquals(5, deep.folderCount());
+		for (int i = 0; i < deep.size(); i++) {
+			assertEquals(entries.get(i).getName(), deep.getName(i));
+		}
+	}
+
+	public void testCompareUTF8() {
+		String[] names = {"/a", "/A/b", "/ab", "/Über", "/über/x", "/中文", "/_", "/~"};
+		for (String left : names) {
+			ByteBuffer utf8 = ByteBuffer.wrap(left.getBytes(DirectoryIndex.UTF_8));
+			for (String right : names) {
+				int expected = Integer.signum(String.CASE_INSENSITIVE_ORDER.compare(left, right));
+				int actual = Integer.signum(DirectoryIndex.compareUTF8(utf8, 0, utf8.limit(), right));
+				assertEquals(left + " vs " + right, expected, actual);
+			}
+		}
+	}
+
+	public void testWriteRead() throws IOException {
+		DirectoryIndex index = newIndex();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		index.write(new DataOutputStream(bytes));
+		ByteBuffer in = ByteBuffer.wrap(bytes.toByteArray());
+		DirectoryIndex copy = DirectoryIndex.read(in);
+		assertEquals(0, in.remaining());
+		assertEquals(index.size(), copy.size());
+		for (int i = 0; i < index.size(); i++) {
+			assertEquals(index.getEntry(i).toString(), copy.getEntry(i).toString());
+		}
+		assertEquals("/toc.hhc", copy.getEntry("/TOC.HHC").getName());
+	}
+
+	public void testReadRejectsCorruptCounts() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		newIndex().write(new DataOutputStream(bytes));
+		byte[] data = bytes.toByteArray();
+		ByteBuffer.wrap(data).putInt(0, -1); // folder count
+		try {
+			DirectoryIndex.read(ByteBuffer.wrap(data));
+			fail();
+		} catch (BufferUnderflowException ex) {
+		}
+		ByteBuffer.wrap(data).putInt(0, Integer.MAX_VALUE);
+		try {
+			DirectoryIndex.read(ByteBuffer.wrap(data));
+			fail();
+		} catch (BufferUnderflowException ex) {
+		}
+	}
+}
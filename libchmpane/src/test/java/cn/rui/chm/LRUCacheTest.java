@@ -0,0 +1,149 @@
+package cn.rui.chm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+public class LRUCacheTest extends TestCase {
+
+	private static final LRUCache.Weigher<String, String> LENGTH = new LRUCache.Weigher<String, String>() {
+		public int weigh(String key, String value) {
+			return value.length();
+		}
+	};
+
+	/**
+	 * Records the keys removed from the cache
+	 */
+	private static class RecordingCache extends LRUCache<String, String> {
+		final List<String> removedKeys = new ArrayList<String>();
+
+		RecordingCache(long capacity, Weigher<String, String> weigher) {
+			super(capacity, 1, weigher);
+		}
+
+		@Override
+		protected void removed(String key, String value) {
+			removedKeys.add(key);
+		}
+	}
+
+	public void testEvictFromProbationFirst() {
+		RecordingCache cache = new RecordingCache(10, null);
+		for (int i = 0; i < 10; i++) {
+			cache.put("k" + i, "v" + i);
+		}
+		// hit again, k0 is promoted, k1 is now the eldest in probation
+		assertEquals("v0", cache.get("k0"));
+		assertTrue(cache.put("k10", "v10"));
+		assertEquals("[k1]", cache.removedKeys.toString());
+		assertEquals("v0", cache.get("k0"));
+		assertNull(cache.get("k1"));
+		assertEquals(10, cache.size());
+	}
+
+	public void testDemoteBeyondProtectedCapacity() {
+		RecordingCache cache = new RecordingCache(10, null);
+		for (int i = 0; i < 10; i++) {
+			cache.put("k" + i, "v" + i);
+		}
+		// the protected part holds 8, promoting k8 demotes k0, the eldest protected
+		for (int i = 0; i < 9; i++) {
+			assertEquals("v" + i, cache.get("k" + i));
+		}
+		cache.put("k10", "v10");
+		cache.put("k11", "v11");
+		assertEquals("[k9, k0]", cache.removedKeys.toString());
+		for (int i = 1; i < 9; i++) {
+			assertEquals("v" + i, cache.get("k" + i));
+		}
+	}
+
+	public void testEvictByWeight() {
+		RecordingCache cache = new RecordingCache(10, LENGTH);
+		assertTrue(cache.put("a", "xxxx"));
+		assertTrue(cache.put("b", "xxxx"));
+		assertEquals(8, cache.weight());
+		assertTrue(cache.put("c", "xxx"));
+		assertEquals("[a]", cache.removedKeys.toString());
+		assertEquals(7, cache.weight());
+		assertEquals(2, cache.size());
+	}
+
+	public void testRejectTooHeavy() {
+		RecordingCache cache = new RecordingCache(10, LENGTH);
+		cache.put("a", "xxxx");
+		assertFalse(cache.put("b", "xxxxxxxxxxx"));
+		assertNull(cache.get("b"));
+		assertEquals("xxxx", cache.get("a"));
+		assertEquals(4, cache.weight());
+		assertTrue(cache.removedKeys.isEmpty());
+	}
+
+	public void testRemovedCallback() {
+		RecordingCache cache = new RecordingCache(10, LENGTH);
+		cache.put("a", "x");
+		cache.put("a", "xx"); // replaced
+		cache.put("b", "x");
+		assertEquals("xx", cache.remove("a"));
+		assertNull(cache.remove("a"));
+		cache.put("c", "x");
+		cache.clear();
+		assertEquals("[a, a, b, c]", sorted(cache.removedKeys));
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.weight());
+	}
+
+	public void testConcurrentWeight() throws InterruptedException {
+		final long capacity = 1000;
+		final AtomicLong cached = new AtomicLong();
+		final LRUCache<String, String> cache = new LRUCache<String, String>(capacity, 16, LENGTH) {
+			@Override
+			protected void removed(String key, String value) {
+				cached.addAndGet(-value.length());
+			}
+		};
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final Random random = new Random(t);
+			threads[t] = new Thread() {
+				public void run() {
+					StringBuilder value = new StringBuilder();
+					for (int i = 0; i < 20000; i++) {
+						String key = "k" + random.nextInt(200);
+						int op = random.nextInt(10);
+						if (op < 5) {
+							cache.get(key);
+						} else if (op < 9) {
+							value.setLength(0);
+							for (int n = random.nextInt(40); n > 0; n--) {
+								value.append('x');
+							}
+							if (cache.put(key, value.toString())) {
+								cached.addAndGet(value.length());
+							}
+						} else {
+							cache.remove(key);
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(cache.weight() <= capacity);
+		assertEquals(cached.get(), cache.weight());
+	}
+
+	private static String sorted(List<String> keys) {
+		List<String> copy = new ArrayList<String>(keys);
+		Collections.sort(copy);
+		return copy.toString();
+	}
+}
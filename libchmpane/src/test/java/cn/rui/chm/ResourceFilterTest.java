@@ -0,0 +1,54 @@
+package cn.rui.chm;
+
+import junit.framework.TestCase;
+
+public class ResourceFilterTest extends TestCase {
+
+	public void testExtension() {
+		ResourceFilter filter = ResourceFilter.extension("htm", ".HTML");
+		assertTrue(filter.accept("/a.htm"));
+		assertTrue(filter.accept("/b/C.HTM"));
+		assertTrue(filter.accept("/d.html"));
+		assertFalse(filter.accept("/e.xhtm"));
+		assertFalse(filter.accept("/htm"));
+		assertEquals("/", filter.getPrefix());
+	}
+
+	public void testGlobInFolder() {
+		ResourceFilter filter = ResourceFilter.glob("/images/*.gif");
+		assertTrue(filter.accept("/images/a.gif"));
+		assertTrue(filter.accept("/IMAGES/B.GIF"));
+		assertFalse(filter.accept("/images/sub/a.gif"));
+		assertFalse(filter.accept("/images/a.png"));
+		assertEquals("/images/", filter.getPrefix());
+	}
+
+	public void testGlobAnyFolders() {
+		ResourceFilter filter = ResourceFilter.glob("/**/*.htm");
+		assertTrue(filter.accept("/a.htm"));
+		assertTrue(filter.accept("/x/y/a.htm"));
+		assertFalse(filter.accept("/x/a.html"));
+		assertEquals("/", filter.getPrefix());
+
+		filter = ResourceFilter.glob("/html/**");
+		assertTrue(filter.accept("/html/a/b.css"));
+		assertFalse(filter.accept("/htmlx/a.css"));
+		assertEquals("/html/", filter.getPrefix());
+	}
+
+	public void testGlobLastSegment() {
+		ResourceFilter filter = ResourceFilter.glob("*.hhc");
+		assertTrue(filter.accept("/toc.hhc"));
+		assertTrue(filter.accept("/x/TOC.HHC"));
+		assertFalse(filter.accept("/toc.hhk"));
+		assertEquals("/", filter.getPrefix());
+	}
+
+	public void testGlobLiterals() {
+		ResourceFilter filter = ResourceFilter.glob("/a+b/file?.(1).htm");
+		assertTrue(filter.accept("/a+b/file1.(1).htm"));
+		assertFalse(filter.accept("/a+b/file.(1).htm"));
+		assertFalse(filter.accept("/a+b/file/.(1).htm"));
+		assertFalse(filter.accept("/aab/file1.(1).htm"));
+	}
+}
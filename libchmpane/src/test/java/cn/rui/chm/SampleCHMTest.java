@@ -0,0 +1,396 @@
+package cn.rui.chm;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+import junit.framework.TestCase;
+
+/**
+ * Reads sample.chm, a small generated file listed by sample.lst: the name, length and CRC32 of each resource.
+ * It has 512-byte directory chunks, five PMGL under one PMGI, the second PMGL without quickref area,
+ * entries for its folders, and an LZX section of 64K reset intervals, which /html/big.htm spans four of.
+ */
+public class SampleCHMTest extends TestCase {
+
+	private File sample;
+	// name -> {length, crc32}, in directory order
+	private Map<String, long[]> expected;
+
+	@Override
+	protected void setUp() throws Exception {
+		sample = new File(getClass().getResource("sample.chm").toURI());
+		expected = new LinkedHashMap<String, long[]>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(getClass().getResourceAsStream("sample.lst"), "UTF-8"));
+		try {
+			for (String line = in.readLine(); line != null; line = in.readLine()) {
+				String[] fields = line.split("\t");
+				expected.put(fields[0], new long[] {Long.parseLong(fields[1]), Long.parseLong(fields[2], 16)});
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static long crc32(byte[] b, int len) {
+		CRC32 crc = new CRC32();
+		crc.update(b, 0, len);
+		return crc.getValue();
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[1000]; // not a divisor of the block size
+		for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+			out.write(buf, 0, n);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+	private void assertContent(String name, byte[] content) {
+		long[] lengthAndCrc = expected.get(name);
+		assertEquals(name, lengthAndCrc[0], content.length);
+		assertEquals(name, lengthAndCrc[1], crc32(content, content.length));
+	}
+
+	private void assertResources(CHMFile chm) throws IOException {
+		assertEquals(new ArrayList<String>(expected.keySet()), chm.getResources());
+		for (String name : expected.keySet()) {
+			assertContent(name, readFully(chm.getResourceAsStream(name)));
+		}
+		chm.close();
+	}
+
+	public void testRandomAccessFile() throws Exception {
+		assertResources(new CHMFile(sample));
+	}
+
+	public void testMemoryMapped() throws Exception {
+		assertResources(new CHMFile(sample, CHMFile.StorageMode.MEMORY_MAPPED));
+	}
+
+	public void testPositionalRead() throws Exception {
+		final CHMFile chm = new CHMFile(sample, CHMFile.StorageMode.POSITIONAL_READ);
+		final List<Throwable> failures = new ArrayList<Throwable>();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					try {
+						for (String name : expected.keySet()) {
+							assertContent(name, readFully(chm.getResourceAsStream(name)));
+						}
+					} catch (Throwable ex) {
+						failures.add(ex);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(new ArrayList<Throwable>(), failures);
+		assertResources(chm);
+	}
+
+	public void testInMemory() throws Exception {
+		CHMStorage storage = ByteBufferStorage.loadResource(getClass().getClassLoader(), "cn/rui/chm/sample.chm", false);
+		assertResources(new CHMFile(storage));
+		RandomAccessFile raf = new RandomAccessFile(sample, "r");
+		byte[] data = new byte[(int) raf.length()];
+		raf.readFully(data);
+		raf.close();
+		assertResources(new CHMFile(new ByteBufferStorage(data)));
+	}
+
+	public void testMissingResource() throws Exception {
+		CHMFile chm = new CHMFile(sample);
+		assertNull(chm.resolveEntry("/html/nothing.htm"));
+		try {
+			chm.getResourceAsStream("/html/nothing.htm");
+			fail();
+		} catch (FileNotFoundException ex) {
+			// the bare file name, the message may reach users
+			assertEquals("sample.chm/html/nothing.htm", ex.getMessage());
+		}
+		chm.close();
+	}
+
+	public void testByteBuffer() throws Exception {
+		CHMFile chm = new CHMFile(sample, CHMFile.StorageMode.MEMORY_MAPPED);
+		for (String name : expected.keySet()) {
+			ByteBuffer buf = chm.getResourceAsByteBuffer(name);
+			assertTrue(buf.isReadOnly());
+			byte[] content = new byte[buf.remaining()];
+			buf.get(content);
+			assertContent(name, content);
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			assertEquals(content.length, chm.readResource(name, Channels.newChannel(out)));
+			assertContent(name, out.toByteArray());
+		}
+		chm.close();
+	}
+
+	public void testTransferResource() throws Exception {
+		CHMFile chm = new CHMFile(sample, CHMFile.StorageMode.POSITIONAL_READ);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		// in the Uncompressed section
+		assertTrue(chm.transferResource("/raw/image1.bin", Channels.newChannel(out)));
+		assertContent("/raw/image1.bin", out.toByteArray());
+		// compressed
+		out.reset();
+		CHMFile.ResourceEntry entry = chm.resolveEntry("/html/big.htm");
+		assertFalse(chm.isTransferable(entry));
+		assertFalse(chm.transferResource(entry, Channels.newChannel(out)));
+		assertEquals(0, out.size());
+		chm.close();
+	}
+
+	public void testPreloadDirectory() throws Exception {
+		CHMFile chm = new CHMFile(sample, CHMFile.StorageMode.RANDOM_ACCESS_FILE,
+				new OpenOptions().setPreloadDirectory(true));
+		assertTrue(chm.isResourcesCompleted());
+		assertResources(chm);
+	}
+
+	public void testConcurrentDirectory() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			CHMFile chm = new CHMFile(sample, CHMFile.StorageMode.POSITIONAL_READ);
+			assertEquals(new ArrayList<String>(expected.keySet()), chm.getResources(executor));
+			assertTrue(chm.isResourcesCompleted());
+			assertResources(chm);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static File newTempDirectory() throws IOException {
+		File directory = File.createTempFile("chmidx", "");
+		directory.delete();
+		directory.mkdir();
+		directory.deleteOnExit();
+		return directory;
+	}
+
+	public void testIndexCacheFile() throws Exception {
+		File directory = newTempDirectory();
+		OpenOptions options = new OpenOptions().setIndexCacheDirectory(directory);
+		File cacheFile = IndexCacheFile.fileFor(directory, sample);
+		cacheFile.deleteOnExit();
+		try {
+			CHMFile chm = new CHMFile(sample, CHMFile.StorageMode.RANDOM_ACCESS_FILE, options);
+			// nothing is loaded for it at open
+			assertFalse(chm.isResourcesCompleted());
+			assertFalse(cacheFile.exists());
+			chm.getResources();
+			assertTrue(cacheFile.isFile());
+			long written = cacheFile.length();
+			SiteMap contents = chm.getContentsSiteMap();
+			SiteMap index = chm.getIndexSiteMap();
+			assertNotNull(contents);
+			assertNotNull(index);
+			// written again with the sitemaps
+			assertTrue(cacheFile.length() > written);
+			chm.close();
+
+			chm = new CHMFile(sample, CHMFile.StorageMode.RANDOM_ACCESS_FILE, options);
+			assertTrue(chm.isResourcesCompleted());
+			assertEquals(contents, chm.getContentsSiteMap());
+			assertEquals(index, chm.getIndexSiteMap());
+			assertEquals("Sample", chm.getSharpSystem().getProperty(SharpSystem.HhpOption.Title));
+			assertResources(chm);
+
+			// a corrupt sidecar is ignored and written again
+			RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw");
+			raf.seek(raf.length() / 2);
+			raf.write(~raf.read());
+			raf.close();
+			chm = new CHMFile(sample, CHMFile.StorageMode.RANDOM_ACCESS_FILE, options);
+			assertFalse(chm.isResourcesCompleted());
+			assertResources(chm);
+			chm = new CHMFile(sample, CHMFile.StorageMode.RANDOM_ACCESS_FILE, options);
+			assertTrue(chm.isResourcesCompleted());
+			chm.close();
+		} finally {
+			cacheFile.delete();
+			directory.delete();
+		}
+	}
+
+	public void testLookupBeforeLoad() throws Exception {
+		CHMFile chm = new CHMFile(sample);
+		for (Map.Entry<String, long[]> e : expected.entrySet()) {
+			CHMFile.ResourceEntry entry = chm.resolveEntry(e.getKey().toUpperCase());
+			assertNotNull(e.getKey(), entry);
+			assertEquals(e.getKey(), entry.getName());
+			assertEquals(e.getValue()[0], entry.getLength());
+		}
+		assertNull(chm.resolveEntry("/html/api/nothing.htm"));
+		assertNull(chm.resolveEntry("/zzz"));
+		// found through the index and the quickref areas, without loading the whole directory
+		assertFalse(chm.isResourcesCompleted());
+		chm.close();
+	}
+
+	/**
+	 * Same as listChildren, from the names in sample.lst
+	 */
+	private List<String> children(String folder) {
+		Set<String> children = new LinkedHashSet<String>();
+		for (String name : expected.keySet()) {
+			if (name.length() > folder.length() && name.regionMatches(true, 0, folder, 0, folder.length())) {
+				int slash = name.indexOf('/', folder.length());
+				children.add(slash < 0 ? name : name.substring(0, slash + 1));
+			}
+		}
+		return new ArrayList<String>(children);
+	}
+
+	private static List<String> toList(Iterator<String> it) {
+		List<String> list = new ArrayList<String>();
+		while (it.hasNext()) {
+			list.add(it.next());
+		}
+		return list;
+	}
+
+	public void testListChildren() throws Exception {
+		CHMFile chm = new CHMFile(sample);
+		for (int loaded = 0; loaded < 2; loaded++) {
+			// the folders have entries of their own, each one is listed once
+			List<String> root = toList(chm.listChildren("/"));
+			assertEquals(children("/"), root);
+			assertEquals(new LinkedHashSet<String>(root).size(), root.size());
+			assertTrue(root.contains("/html/"));
+			assertEquals(children("/html/"), toList(chm.listChildren("/HTML")));
+			assertEquals(children("/html/api/"), toList(chm.listChildren("/html/api/")));
+			assertEquals(children("/中文/"), toList(chm.listChildren("/中文/")));
+			assertEquals(new ArrayList<String>(), toList(chm.listChildren("/nothing/")));
+
+			List<String> images = new ArrayList<String>();
+			for (String name : expected.keySet()) {
+				if (name.startsWith("/images/")) {
+					images.add(name);
+				}
+			}
+			assertEquals(images, toList(chm.listByPrefix("/Images/")));
+			chm.getResources();
+		}
+		chm.close();
+	}
+
+	public void testResourcesFilter() throws Exception {
+		CHMFile chm = new CHMFile(sample);
+		List<String> gifs = new ArrayList<String>();
+		for (String name : expected.keySet()) {
+			if (name.startsWith("/images/icons/") && name.endsWith(".gif")) {
+				gifs.add(name);
+			}
+		}
+		assertFalse(gifs.isEmpty());
+		List<String> found = new ArrayList<String>();
+		for (String name : chm.resources(ResourceFilter.glob("/images/icons/*.gif"))) {
+			found.add(name);
+		}
+		assertEquals(gifs, found);
+		assertFalse(chm.isResourcesCompleted());
+		assertEquals("/toc.hhc", chm.getContentsFileName());
+		assertEquals("/index.hhk", chm.getIndexFileName());
+		chm.close();
+	}
+
+	public void testLargeResource() throws Exception {
+		CHMFile chm = new CHMFile(sample);
+		byte[] all = readFully(chm.getResourceAsStream("/html/big.htm"));
+		assertContent("/html/big.htm", all);
+		// skip across the reset intervals, the stream is positioned anywhere
+		InputStream in = chm.getResourceAsStream("/html/big.htm");
+		assertEquals(150000, in.skip(150000));
+		byte[] tail = readFully(in);
+		assertEquals(all.length - 150000, tail.length);
+		for (int i = 0; i < tail.length; i++) {
+			assertEquals(all[150000 + i], tail[i]);
+		}
+		chm.close();
+	}
+
+	public void testReadResources() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			CHMFile chm = new CHMFile(sample, CHMFile.StorageMode.POSITIONAL_READ);
+			final Map<String, byte[]> contents = new ConcurrentHashMap<String, byte[]>();
+			List<String> names = new ArrayList<String>(expected.keySet());
+			names.add("/nothing.htm");
+			Map<String, IOException> failures = chm.readResources(names, executor, new CHMFile.ResourceHandler() {
+				public void handle(String name, ByteBuffer content) {
+					byte[] b = new byte[content.remaining()];
+					content.get(b);
+					contents.put(name, b);
+				}
+			});
+			assertEquals(1, failures.size());
+			assertTrue(failures.get("/nothing.htm") instanceof FileNotFoundException);
+			assertEquals(expected.size(), contents.size());
+			for (Map.Entry<String, byte[]> e : contents.entrySet()) {
+				assertContent(e.getKey(), e.getValue());
+			}
+			chm.close();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	public void testReadahead() throws Exception {
+		// a single thread, so readers may run before their readahead
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			CHMFile chm = new CHMFile(sample, CHMFile.StorageMode.POSITIONAL_READ,
+					new OpenOptions().setReadaheadExecutor(executor).setReadaheadIntervals(2));
+			assertResources(chm);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	public void testSharedBlockCache() throws Exception {
+		for (boolean offHeap : new boolean[] {false, true}) {
+			// smaller than the section, two intervals per file
+			BlockCache cache = new BlockCache(3 << 16, 2 << 16, offHeap);
+			OpenOptions options = new OpenOptions().setBlockCache(cache);
+			CHMFile chm1 = new CHMFile(sample, CHMFile.StorageMode.MEMORY_MAPPED, options);
+			CHMFile chm2 = new CHMFile(sample, CHMFile.StorageMode.POSITIONAL_READ, options);
+			for (String name : expected.keySet()) {
+				assertContent(name, readFully(chm1.getResourceAsStream(name)));
+				assertContent(name, readFully(chm2.getResourceAsStream(name)));
+				assertTrue(cache.size() <= cache.getMaxBytes());
+			}
+			assertTrue(cache.size() > 0);
+			chm1.close();
+			chm2.close();
+			// closed files give their share back
+			assertEquals(0, cache.size());
+		}
+	}
+}